@@ -1,38 +1,196 @@
 import java.io.*;
+import java.util.Arrays;
 
 public final class Lexer {
 
-    private static final char EOF = (char) -1;
+    private static final char EOF = Source.EOF;
+
+    // character classes of the Latin-1 range, anything past ASCII is left to java.lang.Character
+    private static final byte OTHER      = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte LETTER     = 2;
+    private static final byte DIGIT      = 3;
+    private static final byte UNICODE    = 4;
+
+    private static final byte[] CLASSES = new byte[256];
+
+    static {
+        for (int c = 0x80; c < CLASSES.length; c++) {
+            CLASSES[c] = UNICODE;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = LETTER;
+            CLASSES[Character.toUpperCase(c)] = LETTER;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        CLASSES[' '] = WHITESPACE;
+        CLASSES['\t'] = WHITESPACE;
+        CLASSES['\n'] = WHITESPACE;
+        CLASSES['\r'] = WHITESPACE;
+    }
+
+    // keywords by perfect hash of their first and last character and length
+    private static final Word[] KEYWORDS = new Word[32];
+
+    static {
+        Word[] keywords = {
+            Word.ASSIGN, Word.BEGIN, Word.PRINT, Word.ELSETOK, Word.READ,
+            Word.FORTOK, Word.END, Word.TO, Word.IFTOK, Word.DOTOK
+        };
+        for (Word keyword : keywords) {
+            char[] lexeme = keyword.getLexeme().toCharArray();
+            KEYWORDS[keywordHash(lexeme, lexeme.length)] = keyword;
+        }
+    }
+
+    // placeholder returned by next() for numbers
+    private static final Token NUMBER = new Token(Tag.NUM);
 
     private char peek = ' ';
+    private long peekStart;
+    private long peekEnd;
     private int line = 1;
 
-    private char readChar(BufferedReader br) {
-        try {
-            peek = (char) br.read();
-        } catch (IOException exc) {
-            peek = EOF; // ERROR
-        }
+    // registers describing the last token returned by next()
+    private char[] chars = new char[32];
+    private int length;
+    private long start;
+    private long end;
+
+    // identifiers interned so far, by symbol id and by hash of their lexeme
+    private Word[] words = new Word[64];
+    private Word[] table = new Word[128];
+    private int count = 0;
+
+    private static byte classOf(char c) {
+        return (c < CLASSES.length) ? CLASSES[c] : UNICODE;
+    }
+
+    private static boolean isLetter(char c) {
+        byte cls = classOf(c);
+        return cls == LETTER || (cls == UNICODE && Character.isLetter(c));
+    }
+
+    private static boolean isDigit(char c) {
+        byte cls = classOf(c);
+        return cls == DIGIT || (cls == UNICODE && Character.isDigit(c));
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        byte cls = classOf(c);
+        return cls == LETTER || cls == DIGIT || (cls == UNICODE && Character.isLetterOrDigit(c));
+    }
+
+    private char readChar(Source src) {
+        peekStart = src.offset();
+        peek = src.next();
+        peekEnd = src.offset();
         return peek;
     }
 
+    private void append(char c) {
+        if (length == chars.length) {
+            chars = Arrays.copyOf(chars, length * 2);
+        }
+        chars[length++] = c;
+    }
+
+    private static int keywordHash(char[] lexeme, int length) {
+        return (3 * lexeme[0] + lexeme[length - 1] + length) & 31;
+    }
+
+    private boolean matches(String lexeme) {
+        if (lexeme.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (lexeme.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // hash is the same as String.hashCode, so that interned lexemes never need rehashing
+    private Word identifier() {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (Word word = table[slot]; word != null; word = table[slot]) {
+            if (word.getLexeme().hashCode() == hash && matches(word.getLexeme())) {
+                return word;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        Word word = new Word(Tag.ID, new String(chars, 0, length), count);
+        if (count == words.length) {
+            words = Arrays.copyOf(words, count * 2);
+        }
+        words[count++] = word;
+        table[slot] = word;
+        if (count * 2 > table.length) {
+            rehash();
+        }
+        return word;
+    }
+
+    private void rehash() {
+        table = new Word[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = words[id].getLexeme().hashCode() & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = words[id];
+        }
+    }
+
     private Token reset(Token token) {
+        end = peekEnd;
         peek = ' ';
         return token;
     }
 
+    private Token lookahead(Token token) {
+        end = peekStart;
+        return token;
+    }
+
     private Token erroneousChar(char prev) {
         String tmp = (peek == EOF) ? "EOF" : Character.toString(peek);
         throw new SyntaxError("erroneous character '" + tmp + "' after '" + prev + "'");
     }
 
-    public Token scan(BufferedReader br) {
-        while (peek == ' ' || peek == '\t' || peek == '\n' || peek == '\r') {
+    public Token scan(Source src) {
+        Token token = next(src);
+        if (token == NUMBER) {
+            return new NumberTok(getNumber());
+        }
+        return token;
+    }
+
+    /*
+     * Scans the next token without allocating: identifiers are returned as
+     * the Word interned for their lexeme, while numbers are returned as a
+     * placeholder token whose lexeme and value are left in getNumber() and
+     * getValue() until the following call.
+     */
+    public Token next(Source src) {
+        while (classOf(peek) == WHITESPACE) {
             if (peek == '\n') {
                 line++;
             }
-            readChar(br);
+            readChar(src);
         }
+        start = peekStart;
 
         switch (peek) {
             // parenthesis
@@ -58,7 +216,7 @@ public final class Lexer {
 
             // init
             case ':':
-                return (readChar(br) == '=') ? reset(Word.INIT) : erroneousChar(':');
+                return (readChar(src) == '=') ? reset(Word.INIT) : erroneousChar(':');
 
             // math operators
             case '+':
@@ -74,79 +232,70 @@ public final class Lexer {
             case '!':
                 return reset(Token.NOT);
             case '&':
-                return (readChar(br) == '&') ? reset(Word.AND) : erroneousChar('&');
+                return (readChar(src) == '&') ? reset(Word.AND) : erroneousChar('&');
             case '|':
-                return (readChar(br) == '|') ? reset(Word.OR) : erroneousChar('|');
+                return (readChar(src) == '|') ? reset(Word.OR) : erroneousChar('|');
 
 
             // relational operations
             case '=':
-                return (readChar(br) == '=') ? reset(Word.EQ) : erroneousChar('=');
+                return (readChar(src) == '=') ? reset(Word.EQ) : erroneousChar('=');
             case '>':
-                if (readChar(br) == '=') {
+                if (readChar(src) == '=') {
                     return reset(Word.GE);
                 } else {
-                    return Word.GT;
+                    return lookahead(Word.GT);
                 }
             case '<':
-                switch (readChar(br)) {
+                switch (readChar(src)) {
                     case '=':
                         return reset(Word.LE);
                     case '>':
                         return reset(Word.NE);
                     default:
-                        return Word.LT;
+                        return lookahead(Word.LT);
                 }
 
             // EOF
             case EOF:
-                return new Token(Tag.EOF);
+                return lookahead(new Token(Tag.EOF));
 
             // keywords, identifiers and numbers
             default:
-                StringBuilder sb = new StringBuilder();
-                if (Character.isLetter(peek) || peek == '_') {
+                length = 0;
+                if (isLetter(peek) || peek == '_') {
                     boolean isAccepted = peek != '_';
                     do {
                         isAccepted |= peek != '_';
-                        sb.append(peek);
-                        readChar(br);
-                    } while (Character.isLetterOrDigit(peek) || peek == '_');
+                        append(peek);
+                        readChar(src);
+                    } while (isLetterOrDigit(peek) || peek == '_');
 
-                    String lexeme = sb.toString();
+                    end = peekStart;
                     if (!isAccepted) {
-                        throw new SyntaxError("erroneous char sequence " + lexeme);
+                        throw new SyntaxError("erroneous char sequence " + new String(chars, 0, length));
                     }
 
-                    switch (lexeme) {
-                        case "assign": return Word.ASSIGN;
-                        case "begin":  return Word.BEGIN;
-                        case "print":  return Word.PRINT;
-                        case "else":   return Word.ELSETOK;
-                        case "read":   return Word.READ;
-                        case "for":    return Word.FORTOK;
-                        case "end":    return Word.END;
-                        case "to":     return Word.TO;
-                        case "if":     return Word.IFTOK;
-                        case "do":     return Word.DOTOK;
-                        default:       return new Word(Tag.ID, lexeme);
+                    Word keyword = KEYWORDS[keywordHash(chars, length)];
+                    if (keyword != null && matches(keyword.getLexeme())) {
+                        return keyword;
                     }
-                } else if (Character.isDigit(peek)) {
+                    return identifier();
+                } else if (isDigit(peek)) {
                     if (peek == '0') {
-                        readChar(br);
-                        if (Character.isDigit(peek)) {
+                        readChar(src);
+                        if (isDigit(peek)) {
                             erroneousChar('0');
                         } else {
-                            sb.append('0');
+                            append('0');
                         }
                     } else {
                         do {
-                            sb.append(peek);
-                            readChar(br);
-                        } while (Character.isDigit(peek));
+                            append(peek);
+                            readChar(src);
+                        } while (isDigit(peek));
                     }
-                    String lexeme = sb.toString();
-                    return new NumberTok(lexeme);
+                    return lookahead(NUMBER);
                 } else {
                     throw new SyntaxError("erroneous character '" + peek + "'");
                 }
@@ -157,16 +306,44 @@ public final class Lexer {
         return line;
     }
 
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public Word getWord(int id) {
+        return words[id];
+    }
+
+    public String getNumber() {
+        return new String(chars, 0, length);
+    }
+
+    // value of the last number scanned, -1 if it does not fit in an int or is not in ASCII digits
+    public int getValue() {
+        long val = 0;
+        for (int i = 0; i < length && val <= Integer.MAX_VALUE; i++) {
+            if (chars[i] > '9') {
+                return -1;
+            }
+            val = val * 10 + (chars[i] - '0');
+        }
+        return (val > Integer.MAX_VALUE) ? -1 : (int) val;
+    }
+
     public static void main(String[] args) {
         Lexer lex = new Lexer();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(args[0]));
+            Source src = Source.open(args[0]);
             Token tok;
             do {
-                tok = lex.scan(br);
+                tok = lex.scan(src);
                 System.out.println("Scan: " + tok);
             } while (tok.tag != Tag.EOF);
-            br.close();
+            src.close();
         } catch (SyntaxError e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
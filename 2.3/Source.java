@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+ * Character source scanned directly by the Lexer.
+ *
+ * Files are memory-mapped in windows of WINDOW bytes and walked with an
+ * index cursor; non-ASCII sequences are decoded as UTF-8. Once the input
+ * is exhausted next() returns EOF, just like (char) BufferedReader.read().
+ */
+public final class Source implements Closeable {
+
+    public static final char EOF = (char) -1;
+
+    private static final long WINDOW = 1L << 26;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final FileChannel channel;
+    private final long size;
+
+    private ByteBuffer window;
+    private long base;
+    private int position;
+    private int limit;
+
+    private char pending = EOF;
+
+    private Source(FileChannel channel, long size, ByteBuffer window) {
+        this.channel = channel;
+        this.size = size;
+        this.window = window;
+        this.limit = window.limit();
+    }
+
+    public static Source open(String path) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        long size = channel.size();
+        return new Source(channel, size, map(channel, 0, size));
+    }
+
+    public static Source of(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new Source(null, bytes.length, ByteBuffer.wrap(bytes));
+    }
+
+    // reads bytes from offset from on, which must start a character
+    public static Source of(byte[] bytes, int from) {
+        Source source = new Source(null, bytes.length, ByteBuffer.wrap(bytes));
+        source.position = from;
+        return source;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long from, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, size - from));
+    }
+
+    private boolean advance() {
+        if (channel == null || base + limit >= size) {
+            return false;
+        }
+        try {
+            base += limit;
+            window = map(channel, base, size);
+        } catch (IOException exc) {
+            return false; // ERROR
+        }
+        position = 0;
+        limit = window.limit();
+        return true;
+    }
+
+    private int nextByte() {
+        if (position == limit && !advance()) {
+            return -1;
+        }
+        return window.get(position++) & 0xFF;
+    }
+
+    private int continuation() {
+        int b = nextByte();
+        if ((b & 0xC0) != 0x80) {
+            return -1;
+        }
+        return b & 0x3F;
+    }
+
+    public long offset() {
+        return base + position;
+    }
+
+    public char next() {
+        if (pending != EOF) {
+            char c = pending;
+            pending = EOF;
+            return c;
+        }
+
+        int b = nextByte();
+        if (b < 0) {
+            return EOF;
+        } else if (b < 0x80) {
+            return (char) b;
+        }
+        return decode(b);
+    }
+
+    // decodes a multi-byte UTF-8 sequence starting with lead
+    private char decode(int lead) {
+        int cp;
+        if ((lead & 0xE0) == 0xC0) {
+            int c1 = continuation();
+            cp = (c1 < 0) ? -1 : ((lead & 0x1F) << 6) | c1;
+        } else if ((lead & 0xF0) == 0xE0) {
+            int c1 = continuation();
+            int c2 = (c1 < 0) ? -1 : continuation();
+            cp = (c2 < 0) ? -1 : ((lead & 0x0F) << 12) | (c1 << 6) | c2;
+        } else if ((lead & 0xF8) == 0xF0) {
+            int c1 = continuation();
+            int c2 = (c1 < 0) ? -1 : continuation();
+            int c3 = (c2 < 0) ? -1 : continuation();
+            cp = (c3 < 0) ? -1 : ((lead & 0x07) << 18) | (c1 << 12) | (c2 << 6) | c3;
+        } else {
+            cp = -1;
+        }
+
+        if (cp < 0) {
+            return REPLACEMENT;
+        } else if (Character.isBmpCodePoint(cp)) {
+            return (char) cp;
+        }
+        pending = Character.lowSurrogate(cp);
+        return Character.highSurrogate(cp);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
@@ -21,16 +21,27 @@ public final class Word extends Token {
     public static final Word GE      = new Word(Tag.RELOP,  ">=");
 
     private final String lexeme;
+    private final int id;
 
     public Word(int tag, String lexeme) {
+        this(tag, lexeme, -1);
+    }
+
+    // id is the dense symbol id of identifiers interned by the Lexer, -1 otherwise
+    public Word(int tag, String lexeme, int id) {
         super(tag);
         this.lexeme = lexeme;
+        this.id = id;
     }
 
     public String getLexeme() {
         return lexeme;
     }
 
+    public int getId() {
+        return id;
+    }
+
     @Override
     public String toString() {
         return "<" + tag + ", " + lexeme + ">";
@@ -2,20 +2,20 @@ import java.io.*;
 
 public final class Parser {
 
-    private final BufferedReader br;
+    private final Source src;
     private final Lexer lexer;
 
     private Token look;
 
-    public Parser(Lexer lexer, BufferedReader br) {
+    public Parser(Lexer lexer, Source src) {
         this.lexer = lexer;
-        this.br = br;
+        this.src = src;
         move();
     }
 
     private void move() {
-        look = lexer.scan(br);
-        System.out.println("token = " + look);
+        look = lexer.scan(src);
+        Trace.token(look, lexer.getLine());
     }
 
     private void error(String variable) {
@@ -44,6 +44,7 @@ public final class Parser {
     }
 
     public void start() {
+        Trace.enter("start");
         switch (look.tag) {
             case '(':
             case Tag.NUM:
@@ -56,6 +57,7 @@ public final class Parser {
     }
     
     private void expr() {
+        Trace.enter("expr");
         switch (look.tag) {
             case '(':
             case Tag.NUM:
@@ -68,6 +70,7 @@ public final class Parser {
     }
 
     private void exprp() {
+        Trace.enter("exprp");
         switch (look.tag) {
             case '+': // <exprp> -> + <term> <exprp>
                 match('+');
@@ -85,6 +88,7 @@ public final class Parser {
     }
 
     private void term() {
+        Trace.enter("term");
         switch (look.tag) {
             case '(':
             case Tag.NUM:
@@ -97,6 +101,7 @@ public final class Parser {
     }
 
     private void termp() {
+        Trace.enter("termp");
         switch (look.tag) {
             case '*': // <termp> -> * <fact> <termp>
                 match('*');
@@ -114,6 +119,7 @@ public final class Parser {
     }
 
     private void fact() {
+        Trace.enter("fact");
         switch (look.tag) {
             case '(':
                 match('(');
@@ -132,11 +138,11 @@ public final class Parser {
     public static void main(String[] args) {
         Lexer lex = new Lexer();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(args[0]));
-            Parser parser = new Parser(lex, br);
+            Source src = Source.open(args[0]);
+            Parser parser = new Parser(lex, src);
             parser.start();
             System.out.println("Input OK");
-            br.close();
+            src.close();
         } catch (SyntaxError e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
@@ -2,23 +2,26 @@ import java.io.*;
 
 public final class Parser {
 
-    private final BufferedReader br;
-    private final Lexer lexer;
+    private final TokenBuffer tokens;
 
-    private Token look;
+    public Parser(Lexer lexer, Source src) {
+        this(new TokenBuffer(lexer, src));
+    }
 
-    public Parser(Lexer lexer, BufferedReader br) {
-        this.lexer = lexer;
-        this.br = br;
+    public Parser(TokenBuffer tokens) {
+        this.tokens = tokens;
         move();
     }
 
     private void move() {
-        look = lexer.scan(br);
-        System.out.println("token = " + look);
+        tokens.move();
+        if (Trace.ENABLED) {
+            Trace.token(tokens.token(), tokens.line());
+        }
     }
 
     private void error(String variable) {
+        Token look = tokens.token();
         StringBuilder sb = new StringBuilder();
         sb.append("unexpected token <");
         sb.append(look.tag == -1 ? "EOF" : look.tag);
@@ -29,13 +32,13 @@ public final class Parser {
         sb.append("> parsing <");
         sb.append(variable);
         sb.append("> near line ");
-        sb.append(lexer.getLine());
+        sb.append(tokens.line());
         throw new SyntaxError(sb.toString());
     }
 
     private void match(int tag) {
-        if (look.tag == tag) {
-            if (look.tag != Tag.EOF) {
+        if (tokens.tag() == tag) {
+            if (tokens.tag() != Tag.EOF) {
                 move();
             }
         } else {
@@ -44,7 +47,8 @@ public final class Parser {
     }
 
     public void prog() {
-        switch (look.tag) {
+        Trace.enter("prog");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
             case Tag.PRINT:
             case Tag.READ:
@@ -60,7 +64,8 @@ public final class Parser {
     }
 
     private void statlist() {
-        switch (look.tag) {
+        Trace.enter("statlist");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
             case Tag.PRINT:
             case Tag.READ:
@@ -76,22 +81,27 @@ public final class Parser {
     }
 
     private void statlistp() {
-        switch (look.tag) {
-            case ';':
-                match(';');
-                stat();
-                statlistp();
-                break;
-            case Tag.EOF:
-            case '}':
-                break;
-            default:
-                error("statlistp");
+        // the tail calls of list productions are iterations, so the stack only grows with nesting
+        while (true) {
+            Trace.enter("statlistp");
+            switch (tokens.tag()) {
+                case ';':
+                    match(';');
+                    stat();
+                    continue;
+                case Tag.EOF:
+                case '}':
+                    break;
+                default:
+                    error("statlistp");
+            }
+            return;
         }
     }
 
     private void stat() {
-        switch (look.tag) {
+        Trace.enter("stat");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
                 match(Tag.ASSIGN);
                 assignlist();
@@ -137,7 +147,8 @@ public final class Parser {
     }
 
     private void statc() {
-        switch (look.tag) {
+        Trace.enter("statc");
+        switch (tokens.tag()) {
             case Tag.ID:
                 match(Tag.ID);
                 match(Tag.INIT);
@@ -152,7 +163,8 @@ public final class Parser {
     }
 
     private void statp() {
-        switch (look.tag) {
+        Trace.enter("statp");
+        switch (tokens.tag()) {
             case Tag.ELSE:
                 match(Tag.ELSE);
                 stat();
@@ -165,7 +177,8 @@ public final class Parser {
     }
 
     private void assignlist() {
-        switch (look.tag) {
+        Trace.enter("assignlist");
+        switch (tokens.tag()) {
             case '[':
                 match('[');
                 expr();
@@ -180,28 +193,32 @@ public final class Parser {
     }
 
     private void assignlistp() {
-        switch (look.tag) {
-            case '[':
-                match('[');
-                expr();
-                match(Tag.TO);
-                idlist();
-                match(']');
-                assignlistp();
-                break;
-            case ';':
-            case Tag.ELSE:
-            case Tag.END:
-            case Tag.EOF:
-            case '}':
-                break;
-            default:
-                error("assignlistp");
+        while (true) {
+            Trace.enter("assignlistp");
+            switch (tokens.tag()) {
+                case '[':
+                    match('[');
+                    expr();
+                    match(Tag.TO);
+                    idlist();
+                    match(']');
+                    continue;
+                case ';':
+                case Tag.ELSE:
+                case Tag.END:
+                case Tag.EOF:
+                case '}':
+                    break;
+                default:
+                    error("assignlistp");
+            }
+            return;
         }
     }
 
     private void idlist() {
-        switch (look.tag) {
+        Trace.enter("idlist");
+        switch (tokens.tag()) {
             case Tag.ID:
                 match(Tag.ID);
                 idlistp();
@@ -212,22 +229,26 @@ public final class Parser {
     }
 
     private void idlistp() {
-        switch (look.tag) {
-            case ',':
-                match(',');
-                match(Tag.ID);
-                idlistp();
-                break;
-            case ')':
-            case ']':
-                break;
-            default:
-                error("idlistp");
+        while (true) {
+            Trace.enter("idlistp");
+            switch (tokens.tag()) {
+                case ',':
+                    match(',');
+                    match(Tag.ID);
+                    continue;
+                case ')':
+                case ']':
+                    break;
+                default:
+                    error("idlistp");
+            }
+            return;
         }
     }
 
     private void bexpr() {
-        switch (look.tag) {
+        Trace.enter("bexpr");
+        switch (tokens.tag()) {
             case Tag.RELOP:
                 match(Tag.RELOP);
                 expr();
@@ -239,7 +260,8 @@ public final class Parser {
     }
 
     private void expr() {
-        switch (look.tag) {
+        Trace.enter("expr");
+        switch (tokens.tag()) {
             case '+':
                 match('+');
                 match('(');
@@ -274,7 +296,8 @@ public final class Parser {
     }
 
     private void exprlist() {
-        switch (look.tag) {
+        Trace.enter("exprlist");
+        switch (tokens.tag()) {
             case '+':
             case '-':
             case '*':
@@ -290,27 +313,30 @@ public final class Parser {
     }
 
     private void exprlistp() {
-        switch (look.tag) {
-            case ',':
-                match(',');
-                expr();
-                exprlistp();
-                break;
-            case ')':
-                break;
-            default:
-                error("exprlistp");
+        while (true) {
+            Trace.enter("exprlistp");
+            switch (tokens.tag()) {
+                case ',':
+                    match(',');
+                    expr();
+                    continue;
+                case ')':
+                    break;
+                default:
+                    error("exprlistp");
+            }
+            return;
         }
     }
 
     public static void main(String[] args) {
         Lexer lex = new Lexer();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(args[0]));
-            Parser parser = new Parser(lex, br);
+            Source src = Source.open(args[0]);
+            Parser parser = new Parser(lex, src);
             parser.prog();
             System.out.println("Input OK");
-            br.close();
+            src.close();
         } catch (SyntaxError e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
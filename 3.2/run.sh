@@ -22,7 +22,7 @@ for snippet in $SNIPPETS_DIR/* ; do
   echo ""
   echo ""
   echo "-------------Parsing-------------"
-  java -cp bin Parser $snippet
+  java -Dtrace=tokens -cp bin Parser $snippet
   echo ""
   echo -n "Press ENTER to continue.."
   read ignored
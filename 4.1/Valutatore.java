@@ -2,20 +2,20 @@ import java.io.*;
 
 public final class Valutatore {
 
-    private final BufferedReader br;
+    private final Source src;
     private final Lexer lexer;
 
     private Token look;
 
-    public Valutatore(Lexer lexer, BufferedReader br) {
+    public Valutatore(Lexer lexer, Source src) {
         this.lexer = lexer;
-        this.br = br;
+        this.src = src;
         move();
     }
 
     private void move() {
-        look = lexer.scan(br);
-        System.out.println("token = " + look);
+        look = lexer.scan(src);
+        Trace.token(look, lexer.getLine());
     }
 
     private SyntaxError error(String variable) {
@@ -44,6 +44,7 @@ public final class Valutatore {
     }
 
     public void start() {
+        Trace.enter("start");
         switch (look.tag) {
             case '(':
             case Tag.NUM:
@@ -57,6 +58,7 @@ public final class Valutatore {
     }
     
     private int expr() {
+        Trace.enter("expr");
         int val, termVal;
         switch (look.tag) {
             case '(':
@@ -71,6 +73,7 @@ public final class Valutatore {
     }
 
     private int exprp(int i) {
+        Trace.enter("exprp");
         int val, termVal;
         switch (look.tag) {
             case '+': // <exprp> -> + <term> <exprp>
@@ -91,6 +94,7 @@ public final class Valutatore {
     }
 
     private int term() {
+        Trace.enter("term");
         int val, factVal;
         switch (look.tag) {
             case '(':
@@ -105,6 +109,7 @@ public final class Valutatore {
     }
 
     private int termp(int i) {
+        Trace.enter("termp");
         int val, factVal;
         switch (look.tag) {
             case '*': // <termp> -> * <fact> <termp>
@@ -125,6 +130,7 @@ public final class Valutatore {
     }
 
     private int fact() {
+        Trace.enter("fact");
         int val;
         switch (look.tag) {
             case '(':
@@ -145,11 +151,11 @@ public final class Valutatore {
     public static void main(String[] args) {
         Lexer lex = new Lexer();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(args[0]));
-            Valutatore valutatore = new Valutatore(lex, br);
+            Source src = Source.open(args[0]);
+            Valutatore valutatore = new Valutatore(lex, src);
             valutatore.start();
             System.out.println("Input OK");
-            br.close();
+            src.close();
         } catch (SyntaxError e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
@@ -22,7 +22,7 @@ for snippet in $SNIPPETS_DIR/* ; do
   echo ""
   echo ""
   echo "------------Evaluation-----------"
-  java -cp bin Valutatore $snippet
+  java -Dtrace=tokens -cp bin Valutatore $snippet
   echo ""
   echo -n "Press ENTER to continue.."
   read ignored
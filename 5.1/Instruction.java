@@ -1,21 +1,94 @@
+/*
+ * Instructions as CodeGenerator packs them, an opcode and its operand,
+ * -1 if there is none.
+ */
 public final class Instruction {
 
     private static final String SPACING = "    ";
 
-    private final OpCode opCode;
-    private final int operand;
+    // lower-case names of the opcodes by ordinal, as Jasmin spells them
+    private static final String[] MNEMONICS = new String[OpCode.values().length];
 
-    public Instruction(OpCode opCode) {
-        this(opCode, -1);
+    static {
+        for (OpCode opCode : OpCode.values()) {
+            MNEMONICS[opCode.ordinal()] = opCode.name().toLowerCase();
+        }
+    }
+
+    private Instruction() {
     }
 
-    public Instruction(OpCode opCode, int operand) {
-        this.opCode = opCode;
-        this.operand = operand;
+    public static boolean isBranch(OpCode opCode) {
+        switch (opCode) {
+            case IFNE:
+            case IF_ICMPEQ:
+            case IF_ICMPLE:
+            case IF_ICMPLT:
+            case IF_ICMPNE:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case GOTO:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    public String toJasmin() {
-        String code = " ";
+    // change in the depth of the operand stack
+    public static int stackEffect(OpCode opCode, int operand) {
+        switch (opCode) {
+            case LDC:
+            case ICONST:
+            case BIPUSH:
+            case SIPUSH:
+            case ILOAD:
+            case DUP:
+                return 1;
+            case ISTORE:
+            case POP:
+            case IMUL:
+            case IDIV:
+            case IADD:
+            case ISUB:
+            case IOR:
+            case IAND:
+            case IREM:
+            case IXOR:
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+            case IFNE:
+                return -1;
+            case IF_ICMPEQ:
+            case IF_ICMPLE:
+            case IF_ICMPLT:
+            case IF_ICMPNE:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+                return -2;
+            case INVOKESTATIC:
+                return (operand == 1) ? -1 : 1; // print pops its argument, read pushes its result
+            default:
+                return 0;
+        }
+    }
+
+    // the operand of an iinc adding increment, a signed 16-bit value, to the local at address
+    public static int iinc(int address, int increment) {
+        return (address << 16) | (increment & 0xFFFF);
+    }
+
+    public static int iincAddress(int operand) {
+        return operand >>> 16;
+    }
+
+    public static int iincIncrement(int operand) {
+        return (short) operand;
+    }
+
+    public static void toJasmin(OpCode opCode, int operand, StringBuilder code) {
+        String mnemonic = MNEMONICS[opCode.ordinal()];
+        code.append(' ');
         switch (opCode) {
             case IOR:
             case DUP:
@@ -26,12 +99,34 @@ public final class Instruction {
             case ISUB:
             case INEG:
             case IAND:
-                code += SPACING + opCode.name().toLowerCase() + "\n";
+            case IREM:
+            case IXOR:
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+                code.append(SPACING).append(mnemonic).append('\n');
                 break;
-            case LDC:
             case ILOAD:
             case ISTORE:
-                code += SPACING + opCode.name().toLowerCase() + " " + operand + "\n";
+                // the first four addresses have instructions of their own, iload_<n> and istore_<n>
+                code.append(SPACING).append(mnemonic).append((operand <= 3) ? '_' : ' ').append(operand).append('\n');
+                break;
+            case LDC:
+            case BIPUSH:
+            case SIPUSH:
+                code.append(SPACING).append(mnemonic).append(' ').append(operand).append('\n');
+                break;
+            case ICONST:
+                code.append(SPACING).append(mnemonic).append('_');
+                if (operand < 0) {
+                    code.append('m').append(-operand).append('\n');
+                } else {
+                    code.append(operand).append('\n');
+                }
+                break;
+            case IINC:
+                code.append(SPACING).append(mnemonic).append(' ').append(iincAddress(operand))
+                        .append(' ').append(iincIncrement(operand)).append('\n');
                 break;
             case IFNE:
             case GOTO:
@@ -41,21 +136,20 @@ public final class Instruction {
             case IF_ICMPNE:
             case IF_ICMPGE:
             case IF_ICMPGT:
-                code += SPACING + opCode.name().toLowerCase() + " L" + operand + "\n";
+                code.append(SPACING).append(mnemonic).append(" L").append(operand).append('\n');
                 break;
             case LABEL:
-                code += "L" + operand + ":\n";
+                code.append('L').append(operand).append(":\n");
                 break;
             case INVOKESTATIC:
-                code += SPACING + opCode.name().toLowerCase();
+                code.append(SPACING).append(mnemonic);
                 if (operand == 1) {
-                    code += " Output/print(I)V\n";
+                    code.append(" OutputRuntime/print(I)V\n");
                 } else {
-                    code += " Output/read()I\n";
+                    code.append(" OutputRuntime/read()I\n");
                 }
                 break;
         }
-        return code;
     }
 
 }
@@ -0,0 +1,308 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Liveness pass over the local variables of the instructions of a
+ * CodeGenerator. SymbolTable gives every identifier a slot of its own for
+ * the whole program, so the pass works out, over the ControlFlowGraph of the
+ * code, which variables may still be read at each instruction, and
+ *
+ *      - turns istore x; iload x into dup; istore x
+ *      - drops the stores whose value is never read, along with the
+ *        ldc, iload or dup that pushed it, or else pops the value
+ *      - drops the computations of values that are popped, but for read(),
+ *        divisions and remainders, which may have effects
+ *      - hands out slots again, variables never live at once sharing one,
+ *        and drops the copies between variables that end up in one slot
+ *
+ * A variable live where run() starts is read before some path stores it,
+ * which the verifier rejects, so it keeps a slot no other variable gets.
+ * Past MAX_SHARED variables slots are left as they are, as the pairs of
+ * variables live at once would take too much memory to record, and when
+ * the variables live in all the blocks do not fit in a Dataflow only the
+ * first rewrite is made.
+ */
+public final class LocalOptimizer {
+
+    private static final int MAX_SHARED = 1 << 12;
+
+    private final OpCode[] ops;
+    private final int[] operands;
+    private final int labels;
+    private final int locals;
+    private int size;
+
+    private ControlFlowGraph graph;
+    private Dataflow live;
+
+    private LocalOptimizer(CodeGenerator code) {
+        size = code.size();
+        ops = new OpCode[size];
+        operands = new int[size];
+        int locals = 0;
+        for (int i = 0; i < size; i++) {
+            ops[i] = code.opCode(i);
+            operands[i] = code.operand(i);
+            if (ops[i] == OpCode.ILOAD || ops[i] == OpCode.ISTORE) {
+                locals = Math.max(locals, operands[i] + 1);
+            }
+        }
+        this.labels = code.labels();
+        this.locals = locals;
+    }
+
+    public static void optimize(CodeGenerator code) {
+        LocalOptimizer optimizer = new LocalOptimizer(code);
+        boolean changed = optimizer.forward();
+        if (!optimizer.liveness()) {
+            if (changed) {
+                optimizer.replace(code);
+            }
+            return;
+        }
+        do {
+            changed |= optimizer.removeDeadStores();
+            changed |= optimizer.removeDeadValues();
+        } while (optimizer.compact() && optimizer.liveness());
+        if (optimizer.locals <= MAX_SHARED && optimizer.liveness()) {
+            changed |= optimizer.allocate();
+            changed |= optimizer.removeCopies();
+            optimizer.compact();
+        }
+        if (changed) {
+            optimizer.replace(code);
+        }
+    }
+
+    // istore x; iload x becomes dup; istore x, the stored value staying on the stack
+    private boolean forward() {
+        boolean changed = false;
+        for (int i = 0; i + 1 < size; i++) {
+            if (ops[i] == OpCode.ISTORE && ops[i + 1] == OpCode.ILOAD && operands[i] == operands[i + 1]) {
+                ops[i + 1] = OpCode.ISTORE;
+                ops[i] = OpCode.DUP;
+                operands[i] = -1;
+                changed = true; // another iload x right after is forwarded next, as dup; dup; istore x
+            }
+        }
+        return changed;
+    }
+
+    // the variables live at the start and at the end of each block, a backward MAY problem, false if there are too many
+    private boolean liveness() {
+        graph = new ControlFlowGraph(ops, operands, size, labels);
+        if (!Dataflow.fits(graph.blocks(), locals)) {
+            return false;
+        }
+        BitSet[] uses = new BitSet[graph.blocks()]; // read before the block stores them
+        BitSet[] defs = new BitSet[graph.blocks()];
+        for (int b = 0; b < graph.blocks(); b++) {
+            uses[b] = new BitSet(locals);
+            defs[b] = new BitSet(locals);
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                if (ops[i] == OpCode.ILOAD && !defs[b].get(operands[i])) {
+                    uses[b].set(operands[i]);
+                } else if (ops[i] == OpCode.ISTORE) {
+                    defs[b].set(operands[i]);
+                }
+            }
+        }
+        live = Dataflow.solve(graph, Dataflow.Direction.BACKWARD, Dataflow.Meet.MAY, locals, new BitSet(),
+                Dataflow.genKill(uses, defs));
+        return live != null;
+    }
+
+    private boolean removeDeadStores() {
+        boolean changed = false;
+        for (int b = 0; b < graph.blocks(); b++) {
+            BitSet live = (BitSet) this.live.out(b).clone();
+            for (int i = graph.end(b) - 1; i >= graph.start(b); i--) {
+                if (ops[i] == OpCode.ILOAD) {
+                    live.set(operands[i]);
+                } else if (ops[i] == OpCode.ISTORE) {
+                    if (live.get(operands[i])) {
+                        live.clear(operands[i]);
+                        continue;
+                    }
+                    changed = true;
+                    OpCode previous = (i > graph.start(b)) ? ops[i - 1] : null;
+                    if (previous == OpCode.DUP || previous == OpCode.LDC || previous == OpCode.ILOAD) {
+                        ops[i] = null;
+                        ops[--i] = null; // an iload whose value goes unused does not make its variable live
+                    } else {
+                        ops[i] = OpCode.POP;
+                        operands[i] = -1;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * Goes back from each pop to what pushed the value: an iload, ldc or
+     * dup goes along with it, an operator without effects leaves a pop for
+     * each of its operands instead, and so does the dup before an istore.
+     */
+    private boolean removeDeadValues() {
+        boolean changed = false;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != OpCode.POP) {
+                continue;
+            }
+            int j = previous(i);
+            if (j < 0) {
+                continue;
+            }
+            switch (ops[j]) {
+                case ILOAD:
+                case LDC:
+                case DUP:
+                    ops[j] = null;
+                    ops[i] = null;
+                    break;
+                case INEG:
+                    ops[j] = null;
+                    i = j - 1; // the pop meets what pushed the operand next
+                    break;
+                case IADD:
+                case ISUB:
+                case IMUL:
+                case IAND:
+                case IOR:
+                case IXOR:
+                case ISHL:
+                case ISHR:
+                case IUSHR:
+                    ops[j] = OpCode.POP;
+                    operands[j] = -1;
+                    i = j - 1;
+                    break;
+                case ISTORE: {
+                    int k = previous(j);
+                    if (k >= 0 && ops[k] == OpCode.DUP) {
+                        ops[k] = null;
+                        ops[i] = null;
+                        break;
+                    }
+                    continue;
+                }
+                default:
+                    continue;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    // the instruction before i in its basic block, instructions removed skipped, -1 if there is none
+    private int previous(int i) {
+        for (int j = i - 1; j >= 0; j--) {
+            if (ops[j] == OpCode.LABEL || (ops[j] != null && Instruction.isBranch(ops[j]))) {
+                return -1;
+            } else if (ops[j] != null) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    // drops the instructions removed, returning whether there were any
+    private boolean compact() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != null) {
+                ops[kept] = ops[i];
+                operands[kept] = operands[i];
+                kept++;
+            }
+        }
+        boolean changed = (kept != size);
+        size = kept;
+        return changed;
+    }
+
+    /*
+     * Gives each variable the lowest slot none of the variables it
+     * interferes with has, in the order SymbolTable numbered them. Two
+     * variables interfere when one is stored while the other is live.
+     */
+    private boolean allocate() {
+        BitSet[] interferes = new BitSet[locals];
+        for (int v = 0; v < locals; v++) {
+            interferes[v] = new BitSet(locals);
+        }
+        BitSet used = new BitSet(locals);
+        for (int b = 0; b < graph.blocks(); b++) {
+            BitSet live = (BitSet) this.live.out(b).clone();
+            for (int i = graph.end(b) - 1; i >= graph.start(b); i--) {
+                if (ops[i] == OpCode.ILOAD) {
+                    live.set(operands[i]);
+                    used.set(operands[i]);
+                } else if (ops[i] == OpCode.ISTORE) {
+                    int v = operands[i];
+                    live.clear(v);
+                    interferes[v].or(live);
+                    for (int w = live.nextSetBit(0); w >= 0; w = live.nextSetBit(w + 1)) {
+                        interferes[w].set(v);
+                    }
+                    used.set(v);
+                }
+            }
+        }
+        BitSet entry = (graph.blocks() > 0) ? live.in(0) : new BitSet();
+        for (int v = entry.nextSetBit(0); v >= 0; v = entry.nextSetBit(v + 1)) {
+            interferes[v].or(used);
+            for (int w = used.nextSetBit(0); w >= 0; w = used.nextSetBit(w + 1)) {
+                interferes[w].set(v);
+            }
+        }
+
+        int[] slots = new int[locals];
+        Arrays.fill(slots, -1);
+        boolean changed = false;
+        for (int v = used.nextSetBit(0); v >= 0; v = used.nextSetBit(v + 1)) {
+            BitSet taken = new BitSet();
+            for (int w = interferes[v].nextSetBit(0); w >= 0; w = interferes[v].nextSetBit(w + 1)) {
+                if (w != v && slots[w] >= 0) {
+                    taken.set(slots[w]);
+                }
+            }
+            slots[v] = taken.nextClearBit(0);
+            changed |= (slots[v] != v);
+        }
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == OpCode.ILOAD || ops[i] == OpCode.ISTORE) {
+                operands[i] = slots[operands[i]];
+            }
+        }
+        return changed;
+    }
+
+    // iload x; istore x goes, and so does the dup; istore x of iload x; dup; istore x
+    private boolean removeCopies() {
+        boolean changed = false;
+        for (int i = 1; i < size; i++) {
+            if (ops[i] != OpCode.ISTORE) {
+                continue;
+            }
+            if ((ops[i - 1] == OpCode.ILOAD && operands[i - 1] == operands[i])
+                    || (i >= 2 && ops[i - 1] == OpCode.DUP && ops[i - 2] == OpCode.ILOAD && operands[i - 2] == operands[i])) {
+                ops[i - 1] = null;
+                ops[i] = null;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void replace(CodeGenerator code) {
+        int[] instructions = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            instructions[2 * i] = ops[i].ordinal();
+            instructions[2 * i + 1] = operands[i];
+        }
+        code.replace(instructions, size, labels);
+    }
+
+}
@@ -1,16 +1,25 @@
 public enum OpCode {
     LDC,
+    ICONST,
+    BIPUSH,
+    SIPUSH,
     ILOAD,
     ISTORE,
+    IINC,
     DUP,
     POP,
     IMUL,
     INEG,
     IDIV,
+    IREM,
     IADD,
     ISUB,
     IOR,
     IAND,
+    IXOR,
+    ISHL,
+    ISHR,
+    IUSHR,
     IFNE,
     IF_ICMPEQ,
     IF_ICMPLE,
@@ -4,6 +4,9 @@ public final class SymbolTable {
 
     private final Map<String, Integer> offsetMap = new HashMap<>();
 
+    // addresses by symbol id of Words interned by the Lexer, shifted by one so that 0 means absent
+    private int[] idMap = new int[64];
+
     private int address = 0;
 
     public int lookupOrInsert(String symbol) {
@@ -21,4 +24,26 @@ public final class SymbolTable {
         return offsetMap.get(symbol);
     }
 
+    public int lookupOrInsert(Word word) {
+        int id = word.getId();
+        if (id < 0) {
+            return lookupOrInsert(word.getLexeme());
+        }
+        if (id >= idMap.length) {
+            idMap = Arrays.copyOf(idMap, Math.max(id + 1, idMap.length * 2));
+        }
+        if (idMap[id] == 0) {
+            idMap[id] = lookupOrInsert(word.getLexeme()) + 1;
+        }
+        return idMap[id] - 1;
+    }
+
+    public int lookup(Word word) {
+        int id = word.getId();
+        if (id >= 0 && id < idMap.length && idMap[id] != 0) {
+            return idMap[id] - 1;
+        }
+        return lookup(word.getLexeme());
+    }
+
 }
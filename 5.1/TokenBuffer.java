@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Packed token stream, kept as parallel arrays (tag, source offset,
+ * length, line and value, all int but for the offset, as a mapped Source
+ * may be over 2 GiB) and filled lazily from the Lexer as the cursor
+ * moves forward, so that lexical errors surface in the same order as
+ * with Lexer.scan. Unless retain is set, the arrays are recycled once
+ * full, since a one-pass consumer only ever looks at the current token.
+ *
+ * value holds the decoded number of a NUM, the symbol id the Lexer
+ * interned an ID with and the position in RELOPS of a RELOP; token()
+ * rebuilds the usual Token view of the current entry. A NUM that does
+ * not fit in an int or is not in ASCII digits keeps its lexeme in
+ * numbers instead, value being -1 - its index there, and is only decoded
+ * by value(), with Integer.parseInt as the Translator always did, so that
+ * a parser which never asks for it still accepts it.
+ */
+public final class TokenBuffer {
+
+    private static final int CAPACITY = 1024;
+
+    private static final Word[] RELOPS = { Word.LT, Word.GT, Word.EQ, Word.LE, Word.NE, Word.GE };
+    private static final Token[] FIXED = new Token[Tag.AND + 1];
+
+    static {
+        Token[] fixed = {
+            Token.NOT, Token.LPT, Token.RPT, Token.LPQ, Token.RPQ, Token.LPG, Token.RPG,
+            Token.PLUS, Token.MINUS, Token.MULT, Token.DIV, Token.SEMICOLON, Token.COMMA,
+            Word.ASSIGN, Word.TO, Word.IFTOK, Word.ELSETOK, Word.DOTOK, Word.FORTOK,
+            Word.BEGIN, Word.END, Word.PRINT, Word.READ, Word.INIT, Word.OR, Word.AND
+        };
+        for (Token token : fixed) {
+            FIXED[token.tag] = token;
+        }
+    }
+
+    private final Lexer lexer;
+    private final Source src;
+    private final boolean retain;
+    private final List<String> numbers = new ArrayList<>();
+
+    private int[] tags = new int[CAPACITY];
+    private long[] offsets = new long[CAPACITY];
+    private int[] lengths = new int[CAPACITY];
+    private int[] lines = new int[CAPACITY];
+    private int[] values = new int[CAPACITY];
+    private int size = 0;
+    private int cursor = -1;
+
+    public TokenBuffer(Lexer lexer, Source src) {
+        this(lexer, src, false);
+    }
+
+    public TokenBuffer(Lexer lexer, Source src, boolean retain) {
+        this.lexer = lexer;
+        this.src = src;
+        this.retain = retain;
+    }
+
+    private void grow() {
+        int capacity = tags.length * 2;
+        tags = Arrays.copyOf(tags, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    private void fill() {
+        if (size == tags.length) {
+            if (retain) {
+                grow();
+            } else {
+                size = 0;
+                cursor = 0;
+                numbers.clear();
+            }
+        }
+
+        Token token = lexer.next(src);
+        int value = 0;
+        switch (token.tag) {
+            case Tag.ID:
+                value = ((Word) token).getId();
+                break;
+            case Tag.NUM:
+                value = lexer.getValue();
+                if (value < 0) {
+                    numbers.add(lexer.getNumber());
+                    value = -numbers.size();
+                }
+                break;
+            case Tag.RELOP:
+                while (RELOPS[value] != token) {
+                    value++;
+                }
+                break;
+        }
+
+        tags[size] = token.tag;
+        offsets[size] = lexer.getStart();
+        lengths[size] = (int) (lexer.getEnd() - lexer.getStart());
+        lines[size] = lexer.getLine();
+        values[size] = value;
+        size++;
+    }
+
+    public void move() {
+        cursor++;
+        if (cursor == size) {
+            fill();
+        }
+    }
+
+    public int tag() {
+        return tags[cursor];
+    }
+
+    public long offset() {
+        return offsets[cursor];
+    }
+
+    public int length() {
+        return lengths[cursor];
+    }
+
+    public int line() {
+        return lines[cursor];
+    }
+
+    public int value() {
+        int value = values[cursor];
+        if (tags[cursor] != Tag.NUM || value >= 0) {
+            return value;
+        }
+        return Integer.parseInt(numbers.get(-1 - value)); // NumberFormatException past the int range
+    }
+
+    public String lexeme() {
+        return token().getLexeme();
+    }
+
+    public Token token() {
+        switch (tags[cursor]) {
+            case Tag.ID:
+                return lexer.getWord(values[cursor]);
+            case Tag.NUM:
+                return new NumberTok((values[cursor] >= 0) ? Integer.toString(values[cursor]) : numbers.get(-1 - values[cursor]));
+            case Tag.RELOP:
+                return RELOPS[values[cursor]];
+            case Tag.EOF:
+                return new Token(Tag.EOF);
+            default:
+                return FIXED[tags[cursor]];
+        }
+    }
+
+}
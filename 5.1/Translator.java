@@ -1,4 +1,5 @@
 import java.io.*;
+import java.util.Arrays;
 import java.util.function.BiConsumer;
 
 /*
@@ -20,27 +21,43 @@ import java.util.function.BiConsumer;
  */
 public final class Translator {
 
+    // deepest nesting of operators in an <expr>, set by -DexprDepth=<n>
+    private static final int MAX_DEPTH = Integer.getInteger("exprDepth", 1 << 20);
+
+    // whether prog() runs the optimization passes over the code, off with -Doptimize=false
+    private static final boolean OPTIMIZE = Boolean.parseBoolean(System.getProperty("optimize", "true"));
+
+    private static final OpCode[] OPCODES = OpCode.values();
+    private static final Op[] OPS = Op.values();
+
     private final SymbolTable symbols;
     private final CodeGenerator code;
-    private final BufferedReader br;
-    private final Lexer lexer;
+    private final TokenBuffer tokens;
 
-    private Token look;
+    // operators of the <expr> being parsed still waiting for operands: opcode, operands so far and op, per level
+    private int[] frames = new int[3 * 16];
+    private int depth = 0;
 
-    public Translator(Lexer lexer, BufferedReader br) {
+    public Translator(Lexer lexer, Source src) {
+        this(new TokenBuffer(lexer, src));
+    }
+
+    public Translator(TokenBuffer tokens) {
         this.symbols = new SymbolTable();
         this.code = new CodeGenerator();
-        this.lexer = lexer;
-        this.br = br;
+        this.tokens = tokens;
         move();
     }
 
     private void move() {
-        look = lexer.scan(br);
-        // System.out.println("token = " + look);
+        tokens.move();
+        if (Trace.ENABLED) {
+            Trace.token(tokens.token(), tokens.line());
+        }
     }
 
     private void error(String variable) {
+        Token look = tokens.token();
         StringBuilder sb = new StringBuilder();
         sb.append("unexpected token <");
         sb.append(look.tag == -1 ? "EOF" : look.tag);
@@ -51,13 +68,13 @@ public final class Translator {
         sb.append("> parsing <");
         sb.append(variable);
         sb.append("> near line ");
-        sb.append(lexer.getLine());
+        sb.append(tokens.line());
         throw new SyntaxError(sb.toString());
     }
 
     private void match(int tag) {
-        if (look.tag == tag) {
-            if (look.tag != Tag.EOF) {
+        if (tokens.tag() == tag) {
+            if (tokens.tag() != Tag.EOF) {
                 move();
             }
         } else {
@@ -72,7 +89,8 @@ public final class Translator {
      *           EOF
      */
     public void prog() {
-        switch (look.tag) {
+        Trace.enter("prog");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
             case Tag.PRINT:
             case Tag.READ:
@@ -83,6 +101,9 @@ public final class Translator {
                 statlist(next);
                 code.emitLabel(next);
                 match(Tag.EOF);
+                if (OPTIMIZE) {
+                    code.optimize();
+                }
                 break;
             default:
                 error("start");
@@ -97,7 +118,8 @@ public final class Translator {
      *               <statlistp>
      */
     private void statlist(int next) {
-        switch (look.tag) {
+        Trace.enter("statlist");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
             case Tag.PRINT:
             case Tag.READ:
@@ -126,20 +148,24 @@ public final class Translator {
      *                { emit(GOTO, statlistp.next }
      */
     private void statlistp(int next) {
-        switch (look.tag) {
-            case ';':
-                match(';');
-                int nextListP = code.newLabel();
-                stat(nextListP);
-                code.emitLabel(nextListP);
-                statlistp(next);
-                break;
-            case Tag.EOF:
-            case '}':
-                code.emit(OpCode.GOTO, next);
-                break;
-            default:
-                error("statlistp");
+        // the tail calls of list productions are iterations, so the stack only grows with nesting
+        while (true) {
+            Trace.enter("statlistp");
+            switch (tokens.tag()) {
+                case ';':
+                    match(';');
+                    int nextListP = code.newLabel();
+                    stat(nextListP);
+                    code.emitLabel(nextListP);
+                    continue;
+                case Tag.EOF:
+                case '}':
+                    code.emit(OpCode.GOTO, next);
+                    break;
+                default:
+                    error("statlistp");
+            }
+            return;
         }
     }
 
@@ -182,7 +208,8 @@ public final class Translator {
      *           <statlist> }
      */
     private void stat(int next) {
-        switch (look.tag) {
+        Trace.enter("stat");
+        switch (tokens.tag()) {
             case Tag.ASSIGN:
                 match(Tag.ASSIGN);
                 assignlist();
@@ -250,9 +277,10 @@ public final class Translator {
      * <statc> -> ε
      */
     private void statc() {
-        switch (look.tag) {
+        Trace.enter("statc");
+        switch (tokens.tag()) {
             case Tag.ID:
-                String identifier = look.getLexeme();
+                Word identifier = (Word) tokens.token();
                 int address = symbols.lookupOrInsert(identifier);
                 match(Tag.ID);
                 match(Tag.INIT);
@@ -275,7 +303,8 @@ public final class Translator {
      * <statp> -> ε
      */
     private void statp(int next) {
-        switch (look.tag) {
+        Trace.enter("statp");
+        switch (tokens.tag()) {
             case Tag.ELSE:
                 match(Tag.ELSE);
                 stat(next);
@@ -295,7 +324,8 @@ public final class Translator {
      *                 <idlist> ] <assignlistp>
      */
     private void assignlist() {
-        switch (look.tag) {
+        Trace.enter("assignlist");
+        switch (tokens.tag()) {
             case '[':
                 match('[');
                 expr(Op.ASSIGN);
@@ -319,23 +349,26 @@ public final class Translator {
      * <assignlistp> -> ε
      */
     private void assignlistp() {
-        switch (look.tag) {
-            case '[':
-                match('[');
-                expr(Op.ASSIGN);
-                match(Tag.TO);
-                idlist(Op.ASSIGN);
-                match(']');
-                assignlistp();
-                break;
-            case ';':
-            case Tag.ELSE:
-            case Tag.END:
-            case Tag.EOF:
-            case '}':
-                break;
-            default:
-                error("assignlistp");
+        while (true) {
+            Trace.enter("assignlistp");
+            switch (tokens.tag()) {
+                case '[':
+                    match('[');
+                    expr(Op.ASSIGN);
+                    match(Tag.TO);
+                    idlist(Op.ASSIGN);
+                    match(']');
+                    continue;
+                case ';':
+                case Tag.ELSE:
+                case Tag.END:
+                case Tag.EOF:
+                case '}':
+                    break;
+                default:
+                    error("assignlistp");
+            }
+            return;
         }
     }
 
@@ -346,10 +379,11 @@ public final class Translator {
      *             <idlistp>
      */
     private void idlist(Op op) {
-        switch (look.tag) {
+        Trace.enter("idlist");
+        switch (tokens.tag()) {
             case Tag.ID:
                 // reserve variable identifier so that order is kept, then match it
-                String identifier = look.getLexeme();
+                Word identifier = (Word) tokens.token();
                 int address = symbols.lookupOrInsert(identifier);
                 match(Tag.ID);
 
@@ -372,26 +406,33 @@ public final class Translator {
      *              { emitOpIfIn(idlistp.op, idlistp.prevAddress, { READ, PRINT, ASSIGN_LAST }) }
      */
     private void idlistp(Op op, int prevAddress) {
-        switch (look.tag) {
-            case ',':
-                match(',');
-                // reserve variable identifier so that order is kept, then match it
-                String identifier = look.getLexeme();
-                int address = symbols.lookupOrInsert(identifier);
-                match(Tag.ID);
-
-                // emit actual code for the operation this idlist(p) refers to
-                code.emitOpIfIn(op, prevAddress, Op.READ, Op.PRINT, Op.ASSIGN);
-
-                // make idlistp inherit variable address
-                idlistp(op, address);
-                break;
-            case ')':
-            case ']':
-                code.emitOpIfIn(op, prevAddress, Op.READ, Op.PRINT, Op.ASSIGN_LAST);
-                break;
-            default:
-                error("idlistp");
+        while (true) {
+            Trace.enter("idlistp");
+            switch (tokens.tag()) {
+                case ',':
+                    match(',');
+                    if (tokens.tag() != Tag.ID) {
+                        error("idlistp");
+                    }
+                    // reserve variable identifier so that order is kept, then match it
+                    Word identifier = (Word) tokens.token();
+                    int address = symbols.lookupOrInsert(identifier);
+                    match(Tag.ID);
+
+                    // emit actual code for the operation this idlist(p) refers to
+                    code.emitOpIfIn(op, prevAddress, Op.READ, Op.PRINT, Op.ASSIGN);
+
+                    // make idlistp inherit variable address
+                    prevAddress = address;
+                    continue;
+                case ')':
+                case ']':
+                    code.emitOpIfIn(op, prevAddress, Op.READ, Op.PRINT, Op.ASSIGN_LAST);
+                    break;
+                default:
+                    error("idlistp");
+            }
+            return;
         }
     }
 
@@ -439,9 +480,10 @@ public final class Translator {
      *               { emit(GOTO, bexpr.falseLabel) }
      */
     private void bexpr(int trueLabel, int falseLabel) {
-        switch (look.tag) {
+        Trace.enter("bexpr");
+        switch (tokens.tag()) {
             case Tag.RELOP:
-                Word relop = (Word) look;
+                Word relop = (Word) tokens.token();
                 match(Tag.RELOP);
                 expr(Op.NONE);
                 expr(Op.NONE);
@@ -494,53 +536,154 @@ public final class Translator {
      * <expr> -> ID
      *           { emit(ILOAD, lookup(ID)) }
      *           { emitOpIfIn(op, { PRINT }) }
+     *
+     * Operands are parsed on the frames stack rather than by calling expr
+     * again, along with the <exprlist> and <exprlistp> they belong to, so
+     * that deeply nested expressions do not overflow the Java stack.
      */
     private void expr(Op op) {
-        switch (look.tag) {
-            case '+': {
-                match('+');
-                match('(');
-                exprlist(Op.ADD);
-                match(')');
-                break;
+        Op current = op;
+        parse:
+        while (true) {
+            // parses the start of an <expr> whose op is current, descending into its first operand
+            Trace.enter("expr");
+            switch (tokens.tag()) {
+                case '+': {
+                    match('+');
+                    match('(');
+                    push(OpCode.IADD, current);
+                    beginExprlist();
+                    current = Op.ADD;
+                    continue;
+                }
+                case '-': {
+                    match('-');
+                    push(OpCode.ISUB, current);
+                    current = Op.NONE;
+                    continue;
+                }
+                case '*': {
+                    match('*');
+                    match('(');
+                    push(OpCode.IMUL, current);
+                    beginExprlist();
+                    current = Op.MUL;
+                    continue;
+                }
+                case '/':
+                    match('/');
+                    push(OpCode.IDIV, current);
+                    current = Op.NONE;
+                    continue;
+                case Tag.NUM:
+                    int operand = tokens.value();
+                    code.emit(OpCode.LDC, operand);
+                    match(Tag.NUM);
+                    break;
+                case Tag.ID:
+                    Word identifier = (Word) tokens.token();
+                    int address = symbols.lookup(identifier);
+                    code.emit(OpCode.ILOAD, address);
+                    match(Tag.ID);
+                    break;
+                default: {
+                    error("expr");
+                }
             }
-            case '-': {
-                match('-');
-                expr(Op.NONE);
-                expr(Op.NONE);
-                code.emit(OpCode.ISUB);
-                break;
+
+            // an <expr> is done, which completes an operand of the one on top of the stack
+            code.emitOpIfIn(current, Op.PRINT);
+            while (depth > 0) {
+                int top = 3 * (depth - 1);
+                OpCode operator = OPCODES[frames[top]];
+                int operands = ++frames[top + 1];
+                Op parent = OPS[frames[top + 2]];
+
+                if (operator == OpCode.ISUB || operator == OpCode.IDIV) {
+                    if (operands == 1) {
+                        current = Op.NONE;
+                        continue parse;
+                    }
+                    emitOperator(operator);
+                } else {
+                    Op listOp = (operator == OpCode.IADD) ? Op.ADD : Op.MUL;
+                    if (operands > 1) {
+                        emitOperator(operator); // emitOpIfIn(listOp, { ADD, MUL }), as listOp is one of them
+                    }
+                    // <exprlistp>, one iteration per further operand
+                    Trace.enter("exprlistp");
+                    switch (tokens.tag()) {
+                        case ',':
+                            match(',');
+                            current = listOp;
+                            continue parse;
+                        case ')':
+                            break;
+
+                        default: error("exprlistp");
+                    }
+                    match(')');
+                }
+
+                depth--;
+                current = parent;
+                code.emitOpIfIn(current, Op.PRINT);
             }
-            case '*': {
-                match('*');
-                match('(');
-                exprlist(Op.MUL);
-                match(')');
-                break;
+            return;
+        }
+    }
+
+    /*
+     * Emits operator, the IADD, ISUB, IMUL or IDIV of an <expr> whose
+     * operands are on the stack, folding it at translation time when they
+     * are constants: the code then ends with the LDC of each, as a
+     * constant operand always comes down to a single LDC. A sum or product
+     * whose last operand was a constant takes the next one in too, since
+     * (e + a) + b is e + (a + b) with int overflow as well. A division by a
+     * constant 0 is left to throw its ArithmeticException when run.
+     */
+    private void emitOperator(OpCode operator) {
+        int size = code.size();
+        if (OPTIMIZE && size >= 2 && code.opCode(size - 1) == OpCode.LDC) {
+            int right = code.operand(size - 1);
+            if (code.opCode(size - 2) == OpCode.LDC && !(operator == OpCode.IDIV && right == 0)) {
+                int left = code.operand(size - 2);
+                code.removeLast(2);
+                code.emit(OpCode.LDC, fold(operator, left, right));
+                return;
             }
-            case '/':
-                match('/');
-                expr(Op.NONE);
-                expr(Op.NONE);
-                code.emit(OpCode.IDIV);
-                break;
-            case Tag.NUM:
-                int operand = Integer.parseInt(look.getLexeme());
-                code.emit(OpCode.LDC, operand);
-                match(Tag.NUM);
-                break;
-            case Tag.ID:
-                String identifier = look.getLexeme();
-                int address = symbols.lookup(identifier);
-                code.emit(OpCode.ILOAD, address);
-                match(Tag.ID);
-                break;
-            default: {
-                error("expr");
+            if ((operator == OpCode.IADD || operator == OpCode.IMUL)
+                    && size >= 3 && code.opCode(size - 2) == operator && code.opCode(size - 3) == OpCode.LDC) {
+                int left = code.operand(size - 3);
+                code.removeLast(3);
+                code.emit(OpCode.LDC, fold(operator, left, right));
             }
         }
+        code.emit(operator);
+    }
 
-        code.emitOpIfIn(op, Op.PRINT);
+    // left operator right, with the overflow and rounding of the JVM
+    private static int fold(OpCode operator, int left, int right) {
+        switch (operator) {
+            case IADD: return left + right;
+            case ISUB: return left - right;
+            case IMUL: return left * right;
+            default:   return left / right;
+        }
+    }
+
+    private void push(OpCode operator, Op op) {
+        if (depth == MAX_DEPTH) {
+            throw new SyntaxError("expression nested deeper than " + MAX_DEPTH + " near line " + tokens.line());
+        }
+        int top = 3 * depth;
+        if (top == frames.length) {
+            frames = Arrays.copyOf(frames, top * 2);
+        }
+        frames[top] = operator.ordinal();
+        frames[top + 1] = 0;
+        frames[top + 2] = op.ordinal();
+        depth++;
     }
 
     /*
@@ -550,15 +693,21 @@ public final class Translator {
      *               <exprlistp>
      */
     private void exprlist(Op op) {
-        switch (look.tag) {
+        beginExprlist();
+        expr(op);
+        exprlistp(op);
+    }
+
+    // checks that an <exprlist> starts here, as expr parses the ones it contains on its own
+    private void beginExprlist() {
+        Trace.enter("exprlist");
+        switch (tokens.tag()) {
             case '+':
             case '-':
             case '*':
             case '/':
             case Tag.NUM:
             case Tag.ID:
-                expr(op);
-                exprlistp(op);
                 break;
             default:
                 error("exprlist");
@@ -576,17 +725,20 @@ public final class Translator {
      * <exprlistp> -> ε
      */
     private void exprlistp(Op op) {
-        switch (look.tag) {
-            case ',':
-                match(',');
-                expr(op);
-                code.emitOpIfIn(op, Op.ADD, Op.MUL);
-                exprlistp(op);
-                break;
-            case ')':
-                break;
-
-            default: error("exprlistp");
+        while (true) {
+            Trace.enter("exprlistp");
+            switch (tokens.tag()) {
+                case ',':
+                    match(',');
+                    expr(op);
+                    code.emitOpIfIn(op, Op.ADD, Op.MUL);
+                    continue;
+                case ')':
+                    break;
+
+                default: error("exprlistp");
+            }
+            return;
         }
     }
 
@@ -594,6 +746,18 @@ public final class Translator {
         code.toJasmin();
     }
 
+    public void toJasmin(String path) throws IOException {
+        code.toJasmin(path);
+    }
+
+    public void toClass(String path) throws IOException {
+        code.toClass(path);
+    }
+
+    public void run() throws Throwable {
+        code.run();
+    }
+
     public enum Op implements BiConsumer<CodeGenerator, Integer> {
 
         NONE((code, address) -> {}),
@@ -639,12 +803,17 @@ public final class Translator {
     public static void main(String[] args) {
         Lexer lex = new Lexer();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(args[0]));
-            Translator translator = new Translator(lex, br);
+            Source src = Source.open(args[0]);
+            Translator translator = new Translator(lex, src);
             translator.prog();
-            translator.toJasmin();
-            br.close();
-        } catch (SyntaxError | IllegalArgumentException e) {
+            String output = (args.length > 1) ? args[1] : CodeGenerator.OUTPUT;
+            if (output.endsWith(".class")) {
+                translator.toClass(output);
+            } else {
+                translator.toJasmin(output);
+            }
+            src.close();
+        } catch (SyntaxError | IllegalArgumentException | IllegalStateException e) {
             System.err.println(e.getMessage());
         } catch (IOException e) {
             e.printStackTrace();
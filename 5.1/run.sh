@@ -12,8 +12,8 @@ mkdir bin
 javac -d bin *.java
 
 for snippet in $SNIPPETS_DIR/* ; do
-  if [ -f Output.j ] ; then
-    rm Output.j
+  if [ -f bin/Output.class ] ; then
+    rm bin/Output.class
   fi
 
   clear
@@ -26,9 +26,8 @@ for snippet in $SNIPPETS_DIR/* ; do
   echo ""
   echo ""
   echo "------------Execution------------"
-  java -cp bin Translator $snippet
-  if [ -f Output.j ] ; then
-    java -jar jasmin.jar -d ./bin Output.j
+  java -cp bin Translator $snippet bin/Output.class
+  if [ -f bin/Output.class ] ; then
     java -cp bin Output
   fi
   echo ""
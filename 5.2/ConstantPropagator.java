@@ -0,0 +1,459 @@
+import java.util.Arrays;
+
+/*
+ * Sparse conditional constant propagation over the ControlFlowGraph of
+ * the instructions of a CodeGenerator, the locals and the operand stack
+ * of each block being either a known int, unknown but not negative, or
+ * unknown.
+ *
+ * Blocks are only taken once an edge into them is found to be taken,
+ * starting from the first one with every local unknown, and a branch
+ * whose operands are both known takes just the edge it will take when
+ * run. A value is known where a block starts when it is the same along
+ * every edge taken into it, and not negative when it is not along every
+ * one, and since values only go from known towards unknown and edges
+ * from not taken to taken, the blocks are taken again until nothing
+ * changes. The pass then
+ *
+ *      - drops the blocks no taken edge reaches
+ *      - turns a branch whose outcome is known into a goto, or drops it,
+ *        popping its operands
+ *      - turns an iload of a known local into an ldc, and an operator
+ *        over ldc operands into the ldc of its result, but for a division
+ *        or remainder by 0, which is left to throw its ArithmeticException
+ *      - turns an idiv by 2^k of a value that is not negative into
+ *        ldc k; ishr, which rounds the same way for it
+ *
+ * and counts the branches and instructions it removed. Past MAX_CELLS
+ * values to keep for all the blocks together the pass does nothing.
+ */
+public final class ConstantPropagator {
+
+    private static final int MAX_CELLS = 1 << 22;
+
+    // a value no block knows, as an int is always known
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    private static final long NON_NEGATIVE = Long.MIN_VALUE + 1; // nor this one, but for it being 0 or more
+
+    private static final byte FALL_THROUGH = 1;
+    private static final byte BRANCH = 2;
+
+    private OpCode[] ops;
+    private int[] operands;
+    private final int labels;
+    private final int locals;
+    private int size;
+
+    private ControlFlowGraph graph;
+    private long[][] out; // locals and then the stack where each block ends, null if the block is not taken
+    private byte[] taken; // edges taken out of each block
+
+    private long[] stack = new long[16];
+    private int depth;
+
+    private int branches;
+    private int removed;
+
+    private ConstantPropagator(CodeGenerator code) {
+        size = code.size();
+        ops = new OpCode[size];
+        operands = new int[size];
+        int locals = 0;
+        for (int i = 0; i < size; i++) {
+            ops[i] = code.opCode(i);
+            operands[i] = code.operand(i);
+            if (ops[i] == OpCode.ILOAD || ops[i] == OpCode.ISTORE) {
+                locals = Math.max(locals, operands[i] + 1);
+            } else if (ops[i] == OpCode.IINC) {
+                locals = Math.max(locals, Instruction.iincAddress(operands[i]) + 1);
+            }
+        }
+        this.labels = code.labels();
+        this.locals = locals;
+    }
+
+    public static ConstantPropagator optimize(CodeGenerator code) {
+        ConstantPropagator propagator = new ConstantPropagator(code);
+        propagator.graph = new ControlFlowGraph(propagator.ops, propagator.operands, propagator.size, propagator.labels);
+        if ((long) propagator.graph.blocks() * propagator.locals <= MAX_CELLS) {
+            propagator.propagate();
+            if (propagator.rewrite()) {
+                propagator.replace(code);
+            }
+        }
+        return propagator;
+    }
+
+    // number of conditional branches removed
+    public int branches() {
+        return branches;
+    }
+
+    // number of instructions removed, less the ones added to pop the operands of the branches removed
+    public int removed() {
+        return removed;
+    }
+
+    private void propagate() {
+        int blocks = graph.blocks();
+        out = new long[blocks][];
+        taken = new byte[blocks];
+        if (blocks == 0) {
+            return;
+        }
+        int[] queue = new int[blocks];
+        boolean[] queued = new boolean[blocks];
+        int head = 0;
+        int count = 1;
+        queue[0] = 0;
+        queued[0] = true;
+        while (count > 0) {
+            int b = queue[head];
+            head = (head + 1) % blocks;
+            count--;
+            queued[b] = false;
+
+            long[] state = entry(b);
+            System.arraycopy(state, locals, stack(state.length - locals), 0, state.length - locals);
+            depth = state.length - locals;
+            for (int i = graph.start(b); i < graph.end(b) - 1; i++) {
+                execute(state, i);
+            }
+            byte edges = edges(state, graph.end(b) - 1);
+            long[] end = Arrays.copyOf(state, locals + depth);
+            System.arraycopy(stack, 0, end, locals, depth);
+
+            if (Arrays.equals(end, out[b]) && (edges | taken[b]) == taken[b]) {
+                continue;
+            }
+            out[b] = end;
+            taken[b] |= edges;
+            for (int e = 0; e < graph.successorCount(b); e++) {
+                int s = graph.successor(b, e);
+                if (isTaken(b, s) && !queued[s]) {
+                    queued[s] = true;
+                    queue[(head + count) % blocks] = s;
+                    count++;
+                }
+            }
+        }
+    }
+
+    // whether the edge from block to successor was taken
+    private boolean isTaken(int block, int successor) {
+        int last = graph.end(block) - 1;
+        return ((taken[block] & FALL_THROUGH) != 0 && successor == block + 1)
+                || ((taken[block] & BRANCH) != 0 && Instruction.isBranch(ops[last])
+                    && successor == graph.blockOf(operands[last]));
+    }
+
+    // the locals and the stack where block starts, the same along every edge taken into it or else unknown
+    private long[] entry(int block) {
+        long[] state = null;
+        if (block == 0) {
+            state = new long[locals];
+            Arrays.fill(state, UNKNOWN);
+        }
+        for (int p = 0; p < graph.predecessorCount(block); p++) {
+            int predecessor = graph.predecessor(block, p);
+            if (out[predecessor] == null || !isTaken(predecessor, block)) {
+                continue;
+            }
+            if (state == null) {
+                state = out[predecessor].clone();
+                continue;
+            }
+            long[] along = out[predecessor];
+            for (int k = 0; k < Math.min(state.length, along.length); k++) {
+                state[k] = meet(state[k], along[k]);
+            }
+        }
+        return state;
+    }
+
+    // the value along two edges, not negative if it is along both without being the same
+    private static long meet(long a, long b) {
+        if (a == b) {
+            return a;
+        }
+        return (isNonNegative(a) && isNonNegative(b)) ? NON_NEGATIVE : UNKNOWN;
+    }
+
+    private static boolean isKnown(long value) {
+        return value >= Integer.MIN_VALUE;
+    }
+
+    private static boolean isNonNegative(long value) {
+        return value >= 0 || value == NON_NEGATIVE;
+    }
+
+    private long[] stack(int capacity) {
+        if (stack.length < capacity) {
+            stack = Arrays.copyOf(stack, Math.max(capacity, 2 * stack.length));
+        }
+        return stack;
+    }
+
+    private void push(long value) {
+        stack(depth + 1)[depth++] = value;
+    }
+
+    private long pop() {
+        return stack[--depth];
+    }
+
+    // runs instruction i over the locals in state and the stack
+    private void execute(long[] state, int i) {
+        int operand = operands[i];
+        switch (ops[i]) {
+            case LDC:
+            case ICONST:
+            case BIPUSH:
+            case SIPUSH:
+                push(operand);
+                break;
+            case ILOAD:
+                push(state[operand]);
+                break;
+            case ISTORE:
+                state[operand] = pop();
+                break;
+            case IINC: {
+                int address = Instruction.iincAddress(operand);
+                state[address] = isKnown(state[address])
+                        ? (int) state[address] + Instruction.iincIncrement(operand)
+                        : UNKNOWN;
+                break;
+            }
+            case DUP: {
+                long value = pop();
+                push(value);
+                push(value);
+                break;
+            }
+            case POP:
+                pop();
+                break;
+            case INEG: {
+                long value = pop();
+                push(isKnown(value) ? -(int) value : UNKNOWN);
+                break;
+            }
+            case IMUL:
+            case IDIV:
+            case IREM:
+            case IADD:
+            case ISUB:
+            case IOR:
+            case IAND:
+            case IXOR:
+            case ISHL:
+            case ISHR:
+            case IUSHR: {
+                long right = pop();
+                long left = pop();
+                push(fold(ops[i], left, right));
+                break;
+            }
+            case INVOKESTATIC:
+                if (operand == 1) {
+                    pop();
+                } else {
+                    push(UNKNOWN); // read()
+                }
+                break;
+            default:
+                break; // labels and goto, the branches being left to edges and outcome
+        }
+    }
+
+    // left operator right as the JVM computes it, unknown if either is or for a division or remainder by 0
+    private static long fold(OpCode operator, long left, long right) {
+        if (!isKnown(left) || !isKnown(right)) {
+            return bound(operator, left, right);
+        }
+        int a = (int) left;
+        int b = (int) right;
+        switch (operator) {
+            case IMUL:  return a * b;
+            case IADD:  return a + b;
+            case ISUB:  return a - b;
+            case IOR:   return a | b;
+            case IAND:  return a & b;
+            case IXOR:  return a ^ b;
+            case ISHL:  return a << b;
+            case ISHR:  return a >> b;
+            case IUSHR: return a >>> b;
+            case IREM:  return (b == 0) ? UNKNOWN : a % b;
+            default:    return (b == 0) ? UNKNOWN : a / b;
+        }
+    }
+
+    // left operator right when either is not known, not negative if it cannot be and else unknown
+    private static long bound(OpCode operator, long left, long right) {
+        boolean nonNegative;
+        switch (operator) {
+            case IAND:  nonNegative = isNonNegative(left) || isNonNegative(right); break;
+            case IOR:   nonNegative = isNonNegative(left) && isNonNegative(right); break;
+            case IDIV:  nonNegative = isNonNegative(left) && isKnown(right) && right > 0; break;
+            case IREM:  nonNegative = isNonNegative(left) && isKnown(right) && right != 0; break;
+            case ISHR:  nonNegative = isNonNegative(left); break;
+            case IUSHR: nonNegative = isKnown(right) && ((int) right & 31) != 0; break;
+            default:    nonNegative = false;
+        }
+        return nonNegative ? NON_NEGATIVE : UNKNOWN;
+    }
+
+    // the edges the last instruction of a block takes, running it over state and the stack
+    private byte edges(long[] state, int last) {
+        switch (ops[last]) {
+            case GOTO:
+                return BRANCH;
+            case IFNE:
+            case IF_ICMPEQ:
+            case IF_ICMPLE:
+            case IF_ICMPLT:
+            case IF_ICMPNE:
+            case IF_ICMPGE:
+            case IF_ICMPGT: {
+                int outcome = outcome(last);
+                return (outcome < 0) ? FALL_THROUGH | BRANCH : (outcome == 1) ? BRANCH : FALL_THROUGH;
+            }
+            default:
+                execute(state, last);
+                return FALL_THROUGH;
+        }
+    }
+
+    // pops the operands of branch i, returning 1 if it jumps, 0 if it falls through and -1 if that is not known
+    private int outcome(int i) {
+        long right = pop();
+        long left = (ops[i] == OpCode.IFNE) ? 0 : pop();
+        if (!isKnown(left) || !isKnown(right)) {
+            return -1;
+        }
+        int a = (int) left;
+        int b = (int) right;
+        boolean jumps;
+        switch (ops[i]) {
+            case IFNE:      jumps = (b != 0); break;
+            case IF_ICMPEQ: jumps = (a == b); break;
+            case IF_ICMPLE: jumps = (a <= b); break;
+            case IF_ICMPLT: jumps = (a < b); break;
+            case IF_ICMPNE: jumps = (a != b); break;
+            case IF_ICMPGE: jumps = (a >= b); break;
+            default:        jumps = (a > b); break;
+        }
+        return jumps ? 1 : 0;
+    }
+
+    /*
+     * Writes the code again block by block, running each once more from
+     * where it starts to know the values at each of its instructions.
+     */
+    private boolean rewrite() {
+        OpCode[] newOps = new OpCode[size + 1];
+        int[] newOperands = new int[size + 1];
+        int kept = 0;
+        for (int b = 0; b < graph.blocks(); b++) {
+            if (out[b] == null) {
+                continue;
+            }
+            long[] state = entry(b);
+            System.arraycopy(state, locals, stack(state.length - locals), 0, state.length - locals);
+            depth = state.length - locals;
+            int blockStart = kept; // ldc before it may not be folded into what follows
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                if (kept + 3 > newOps.length) {
+                    newOps = Arrays.copyOf(newOps, 2 * newOps.length + 3);
+                    newOperands = Arrays.copyOf(newOperands, newOps.length);
+                }
+                OpCode opCode = ops[i];
+                int operand = operands[i];
+                boolean foldable = false;
+                switch (opCode) {
+                    case ILOAD:
+                        if (isKnown(state[operand])) {
+                            opCode = OpCode.LDC;
+                            operand = (int) state[operand];
+                        }
+                        break;
+                    case INEG:
+                        foldable = (kept - 1 >= blockStart && newOps[kept - 1] == OpCode.LDC);
+                        break;
+                    case IMUL:
+                    case IDIV:
+                    case IREM:
+                    case IADD:
+                    case ISUB:
+                    case IOR:
+                    case IAND:
+                    case IXOR:
+                    case ISHL:
+                    case ISHR:
+                    case IUSHR:
+                        foldable = (kept - 2 >= blockStart && newOps[kept - 1] == OpCode.LDC && newOps[kept - 2] == OpCode.LDC);
+                        break;
+                    default:
+                        break;
+                }
+                if (opCode == OpCode.IDIV && kept - 1 >= blockStart && newOps[kept - 1] == OpCode.LDC
+                        && newOperands[kept - 1] > 1 && Integer.bitCount(newOperands[kept - 1]) == 1
+                        && isNonNegative(stack[depth - 2])) {
+                    newOperands[kept - 1] = Integer.numberOfTrailingZeros(newOperands[kept - 1]);
+                    opCode = OpCode.ISHR;
+                }
+
+                if (i == graph.end(b) - 1 && Instruction.isBranch(opCode) && opCode != OpCode.GOTO) {
+                    int outcome = outcome(i);
+                    if (outcome >= 0) {
+                        branches++;
+                        // the operands go, along with the ldc that pushed them if they are right before
+                        for (int k = (opCode == OpCode.IFNE) ? 1 : 2; k > 0; k--) {
+                            if (kept - 1 >= blockStart && newOps[kept - 1] == OpCode.LDC) {
+                                kept--;
+                            } else {
+                                newOps[kept] = OpCode.POP;
+                                newOperands[kept++] = -1;
+                            }
+                        }
+                        if (outcome == 1) {
+                            newOps[kept] = OpCode.GOTO;
+                            newOperands[kept++] = operand;
+                        }
+                        continue;
+                    }
+                    newOps[kept] = opCode;
+                    newOperands[kept++] = operand;
+                    continue;
+                }
+
+                execute(state, i);
+                if (foldable && isKnown(stack[depth - 1])) {
+                    kept -= (opCode == OpCode.INEG) ? 1 : 2;
+                    opCode = OpCode.LDC;
+                    operand = (int) stack[depth - 1];
+                }
+                newOps[kept] = opCode;
+                newOperands[kept++] = operand;
+            }
+        }
+        removed = size - kept;
+        boolean changed = (branches > 0) || !Arrays.equals(ops, 0, size, newOps, 0, kept)
+                || !Arrays.equals(operands, 0, size, newOperands, 0, kept);
+        ops = newOps;
+        operands = newOperands;
+        size = kept;
+        return changed;
+    }
+
+    private void replace(CodeGenerator code) {
+        int[] instructions = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            instructions[2 * i] = ops[i].ordinal();
+            instructions[2 * i + 1] = operands[i];
+        }
+        code.replace(instructions, size, labels);
+    }
+
+}
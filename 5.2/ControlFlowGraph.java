@@ -0,0 +1,428 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Control-flow graph of run(), over the instructions of a CodeGenerator
+ * or of a pass working on its own copy of them.
+ *
+ * A basic block starts at the first instruction, at a label, unless it
+ * comes right after another label, and after a branch. It ends where the
+ * next one starts, going on to the next block unless it ends with a goto,
+ * and to the block of its label if it ends with a branch. Past the last
+ * block run() returns. Edges are kept as arrays of blocks indexed by an
+ * array of offsets per block, so a graph costs a few ints per block and
+ * per edge however large the program is.
+ *
+ * Dominators are found on demand with the iterative algorithm of Cooper,
+ * Harvey and Kennedy over the blocks in reverse postorder, and so are the
+ * natural loops, one per header, made of the blocks reaching one of its
+ * back edges without going through the header. Blocks the first block
+ * does not reach have no dominator and are in no loop.
+ */
+public final class ControlFlowGraph {
+
+    private final OpCode[] ops;
+    private final int[] operands;
+
+    private final int blocks;
+    private final int[] starts; // block b from starts[b] up to starts[b + 1]
+    private final int[] blockAt; // block of each label, -1 if the label is not in the code
+
+    private final int[] successorOffsets;
+    private final int[] successors;
+    private final int[] predecessorOffsets;
+    private final int[] predecessors;
+
+    // computed on demand
+    private int[] order; // reachable blocks in reverse postorder
+    private int[] orderOf; // position of each block in order, -1 if unreachable
+    private int[] idom;
+    private int[] treeEnter;
+    private int[] treeExit;
+    private List<Loop> loops;
+    private int[] loopDepths;
+
+    public ControlFlowGraph(CodeGenerator code) {
+        this(opCodes(code), operands(code), code.size(), code.labels());
+    }
+
+    // the graph of the first size instructions of ops and operands, whose labels are below labels,
+    // read as they are when asked for, so that the graph must be built again once the blocks change
+    public ControlFlowGraph(OpCode[] ops, int[] operands, int size, int labels) {
+        this.ops = ops;
+        this.operands = operands;
+
+        int[] starts = new int[size + 1];
+        int[] blockAt = new int[labels];
+        Arrays.fill(blockAt, -1);
+        int blocks = 0;
+        for (int i = 0; i < size; i++) {
+            boolean leader = (i == 0)
+                    || (ops[i] == OpCode.LABEL && ops[i - 1] != OpCode.LABEL)
+                    || Instruction.isBranch(ops[i - 1]);
+            if (leader) {
+                starts[blocks++] = i;
+            }
+            if (ops[i] == OpCode.LABEL) {
+                blockAt[operands[i]] = blocks - 1;
+            }
+        }
+        starts[blocks] = size;
+        this.blocks = blocks;
+        this.starts = starts;
+        this.blockAt = blockAt;
+
+        // at most a fall through and a branch out of each block
+        successorOffsets = new int[blocks + 1];
+        int[] edges = new int[2 * blocks];
+        int count = 0;
+        for (int b = 0; b < blocks; b++) {
+            successorOffsets[b] = count;
+            OpCode last = ops[starts[b + 1] - 1];
+            if (last != OpCode.GOTO && b + 1 < blocks) {
+                edges[count++] = b + 1;
+            }
+            if (Instruction.isBranch(last)) {
+                int target = blockAt[operands[starts[b + 1] - 1]];
+                if (count == successorOffsets[b] || edges[count - 1] != target) {
+                    edges[count++] = target;
+                }
+            }
+        }
+        successorOffsets[blocks] = count;
+        successors = Arrays.copyOf(edges, count);
+
+        predecessorOffsets = new int[blocks + 1];
+        for (int edge = 0; edge < count; edge++) {
+            predecessorOffsets[successors[edge] + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            predecessorOffsets[b + 1] += predecessorOffsets[b];
+        }
+        predecessors = new int[count];
+        int[] filled = Arrays.copyOf(predecessorOffsets, blocks);
+        for (int b = 0; b < blocks; b++) {
+            for (int edge = successorOffsets[b]; edge < successorOffsets[b + 1]; edge++) {
+                predecessors[filled[successors[edge]]++] = b;
+            }
+        }
+    }
+
+    private static OpCode[] opCodes(CodeGenerator code) {
+        OpCode[] ops = new OpCode[code.size()];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = code.opCode(i);
+        }
+        return ops;
+    }
+
+    private static int[] operands(CodeGenerator code) {
+        int[] operands = new int[code.size()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = code.operand(i);
+        }
+        return operands;
+    }
+
+    public int blocks() {
+        return blocks;
+    }
+
+    // index of the first instruction of block
+    public int start(int block) {
+        return starts[Objects.checkIndex(block, blocks)];
+    }
+
+    // index past the last instruction of block
+    public int end(int block) {
+        return starts[Objects.checkIndex(block, blocks) + 1];
+    }
+
+    public OpCode opCode(int index) {
+        return ops[index];
+    }
+
+    public int operand(int index) {
+        return operands[index];
+    }
+
+    // block starting with label, -1 if it is not in the code
+    public int blockOf(int label) {
+        return blockAt[label];
+    }
+
+    public int successorCount(int block) {
+        return successorOffsets[block + 1] - successorOffsets[block];
+    }
+
+    public int successor(int block, int index) {
+        return successors[successorOffsets[block] + Objects.checkIndex(index, successorCount(block))];
+    }
+
+    public int predecessorCount(int block) {
+        return predecessorOffsets[block + 1] - predecessorOffsets[block];
+    }
+
+    public int predecessor(int block, int index) {
+        return predecessors[predecessorOffsets[block] + Objects.checkIndex(index, predecessorCount(block))];
+    }
+
+    // the blocks the first one reaches, each before its successors but along back edges
+    public int[] reversePostorder() {
+        if (order == null) {
+            order();
+        }
+        return order.clone();
+    }
+
+    private void order() {
+        orderOf = new int[blocks];
+        Arrays.fill(orderOf, -1);
+        int[] postorder = new int[blocks];
+        int visited = 0;
+        if (blocks > 0) {
+            // depth first without recursion, each block on the stack with the next successor to follow
+            int[] stack = new int[blocks];
+            int[] next = new int[blocks];
+            boolean[] seen = new boolean[blocks];
+            int depth = 0;
+            stack[depth++] = 0;
+            seen[0] = true;
+            while (depth > 0) {
+                int b = stack[depth - 1];
+                if (next[b] < successorCount(b)) {
+                    int s = successor(b, next[b]++);
+                    if (!seen[s]) {
+                        seen[s] = true;
+                        stack[depth++] = s;
+                    }
+                } else {
+                    postorder[visited++] = b;
+                    depth--;
+                }
+            }
+        }
+        order = new int[visited];
+        for (int k = 0; k < visited; k++) {
+            order[k] = postorder[visited - 1 - k];
+            orderOf[order[k]] = k;
+        }
+    }
+
+    public boolean isReachable(int block) {
+        if (order == null) {
+            order();
+        }
+        return orderOf[block] >= 0;
+    }
+
+    // immediate dominator of block, the first block being its own, -1 if block is unreachable
+    public int idom(int block) {
+        if (idom == null) {
+            dominators();
+        }
+        return idom[block];
+    }
+
+    // whether every path from the first block to b goes through a, a dominating itself
+    public boolean dominates(int a, int b) {
+        if (idom == null) {
+            dominators();
+        }
+        return idom[a] >= 0 && idom[b] >= 0 && treeEnter[a] <= treeEnter[b] && treeExit[b] <= treeExit[a];
+    }
+
+    private void dominators() {
+        if (order == null) {
+            order();
+        }
+        idom = new int[blocks];
+        Arrays.fill(idom, -1);
+        if (order.length == 0) {
+            treeEnter = new int[blocks];
+            treeExit = new int[blocks];
+            return;
+        }
+        idom[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = 1; k < order.length; k++) {
+                int b = order[k];
+                int dominator = -1;
+                for (int p = 0; p < predecessorCount(b); p++) {
+                    int predecessor = predecessor(b, p);
+                    if (idom[predecessor] >= 0) {
+                        dominator = (dominator < 0) ? predecessor : intersect(predecessor, dominator);
+                    }
+                }
+                if (idom[b] != dominator) {
+                    idom[b] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        // numbers the dominator tree depth first, so that a dominates b when b is numbered within a
+        int[] childOffsets = new int[blocks + 1];
+        for (int b : order) {
+            if (b != 0) {
+                childOffsets[idom[b] + 1]++;
+            }
+        }
+        for (int b = 0; b < blocks; b++) {
+            childOffsets[b + 1] += childOffsets[b];
+        }
+        int[] children = new int[order.length];
+        int[] filled = Arrays.copyOf(childOffsets, blocks);
+        for (int b : order) {
+            if (b != 0) {
+                children[filled[idom[b]]++] = b;
+            }
+        }
+        treeEnter = new int[blocks];
+        treeExit = new int[blocks];
+        int[] stack = new int[blocks];
+        int[] next = Arrays.copyOf(childOffsets, blocks);
+        int depth = 0;
+        int clock = 0;
+        stack[depth++] = 0;
+        treeEnter[0] = clock++;
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            if (next[b] < childOffsets[b + 1]) {
+                int child = children[next[b]++];
+                treeEnter[child] = clock++;
+                stack[depth++] = child;
+            } else {
+                treeExit[b] = clock++;
+                depth--;
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (orderOf[a] > orderOf[b]) {
+                a = idom[a];
+            }
+            while (orderOf[b] > orderOf[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    // natural loops, inner ones before the loops containing them
+    public List<Loop> loops() {
+        if (loops == null) {
+            findLoops();
+        }
+        return loops;
+    }
+
+    // number of loops block is in
+    public int loopDepth(int block) {
+        if (loops == null) {
+            findLoops();
+        }
+        return loopDepths[block];
+    }
+
+    private void findLoops() {
+        List<Loop> found = new ArrayList<>();
+        int[] stack = new int[blocks];
+        int[] body = new int[blocks];
+        int[] inLoopOf = new int[blocks]; // header + 1 of the last loop a block was put in, so that no set is cleared
+        for (int header = 0; header < blocks; header++) {
+            int size = 0;
+            List<Integer> latches = new ArrayList<>();
+            for (int p = 0; p < predecessorCount(header); p++) {
+                int latch = predecessor(header, p);
+                if (!dominates(header, latch)) {
+                    continue;
+                }
+                if (size == 0) {
+                    inLoopOf[header] = header + 1;
+                    body[size++] = header;
+                }
+                latches.add(latch);
+                // goes back from the latch, the header stopping the walk as it is already in the body
+                int depth = 0;
+                if (inLoopOf[latch] != header + 1) {
+                    inLoopOf[latch] = header + 1;
+                    body[size++] = latch;
+                    stack[depth++] = latch;
+                }
+                while (depth > 0) {
+                    int b = stack[--depth];
+                    for (int q = 0; q < predecessorCount(b); q++) {
+                        int predecessor = predecessor(b, q);
+                        if (isReachable(predecessor) && inLoopOf[predecessor] != header + 1) {
+                            inLoopOf[predecessor] = header + 1;
+                            body[size++] = predecessor;
+                            stack[depth++] = predecessor;
+                        }
+                    }
+                }
+            }
+            if (size > 0) {
+                int[] sorted = Arrays.copyOf(body, size);
+                Arrays.sort(sorted);
+                found.add(new Loop(header, sorted, latches.stream().mapToInt(Integer::intValue).toArray()));
+            }
+        }
+        found.sort(Comparator.comparingInt(loop -> loop.body.length));
+
+        loopDepths = new int[blocks];
+        for (Loop loop : found) {
+            for (int b : loop.body) {
+                loopDepths[b]++;
+            }
+        }
+        loops = Collections.unmodifiableList(found);
+    }
+
+    /*
+     * A natural loop: its header, the one block of the loop reached from
+     * outside it, the blocks in it, header included, and the latches,
+     * the blocks of the loop branching back to the header. The blocks are
+     * kept in order in an array rather than in a set as large as the
+     * graph, as a program may well have as many loops as blocks.
+     */
+    public static final class Loop {
+
+        private final int header;
+        private final int[] body;
+        private final int[] latches;
+
+        private Loop(int header, int[] body, int[] latches) {
+            this.header = header;
+            this.body = body;
+            this.latches = latches;
+        }
+
+        public int header() {
+            return header;
+        }
+
+        public boolean contains(int block) {
+            return Arrays.binarySearch(body, block) >= 0;
+        }
+
+        // the blocks of the loop in increasing order
+        public int[] blocks() {
+            return body.clone();
+        }
+
+        public int[] latches() {
+            return latches.clone();
+        }
+
+    }
+
+}
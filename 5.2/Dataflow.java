@@ -0,0 +1,173 @@
+import java.util.BitSet;
+
+/*
+ * Worklist solver of dataflow problems over the blocks of a
+ * ControlFlowGraph, whose values are sets of bits: variables, say, or
+ * instructions.
+ *
+ * A forward problem goes from the first block along the edges, a
+ * backward one from the blocks run() returns from against them. Where
+ * edges meet, a MAY problem takes the union of the values along them and
+ * a MUST problem their intersection, so that every value starts empty
+ * for the first and full, width bits set, for the second. Each block
+ * turns the value at one end into the value at the other through the
+ * transfer of the problem, usually out = gen | (in & ~kill), which
+ * genKill builds. Blocks are taken again whenever the value flowing into
+ * them changes, in reverse postorder for forward problems and in
+ * postorder for backward ones, so that a problem over code without loops
+ * is solved in one go.
+ *
+ * The values take width bits for every block, so past MAX_BITS for all
+ * the blocks together solve gives up and returns null. A client keeping
+ * values of its own per block, gen and kill say, asks fits first.
+ */
+public final class Dataflow {
+
+    public enum Direction {
+        FORWARD,
+        BACKWARD
+    }
+
+    public enum Meet {
+        MAY,
+        MUST
+    }
+
+    private static final long MAX_BITS = 1 << 24;
+
+    // turns value, the one at the start of block for forward problems and at its end for backward ones, into the other
+    @FunctionalInterface
+    public interface Transfer {
+        void apply(int block, BitSet value);
+    }
+
+    private final ControlFlowGraph graph;
+    private final BitSet[] in;
+    private final BitSet[] out;
+
+    private Dataflow(ControlFlowGraph graph) {
+        this.graph = graph;
+        this.in = new BitSet[graph.blocks()];
+        this.out = new BitSet[graph.blocks()];
+    }
+
+    // whether values of width bits for each of blocks blocks stay within MAX_BITS
+    public static boolean fits(int blocks, int width) {
+        return (long) blocks * width <= MAX_BITS;
+    }
+
+    public static Transfer genKill(BitSet[] gen, BitSet[] kill) {
+        return (block, value) -> {
+            value.andNot(kill[block]);
+            value.or(gen[block]);
+        };
+    }
+
+    /*
+     * Solves the problem, boundary being the value at the start of the
+     * first block for a forward problem and at the end of the blocks
+     * run() returns from for a backward one. Returns null when the
+     * values do not fit.
+     */
+    public static Dataflow solve(ControlFlowGraph graph, Direction direction, Meet meet, int width,
+                                 BitSet boundary, Transfer transfer) {
+        if (!fits(graph.blocks(), width)) {
+            return null;
+        }
+        Dataflow dataflow = new Dataflow(graph);
+        boolean forward = (direction == Direction.FORWARD);
+        int blocks = graph.blocks();
+        for (int b = 0; b < blocks; b++) {
+            dataflow.in[b] = top(meet, width);
+            dataflow.out[b] = top(meet, width);
+        }
+
+        int[] order = graph.reversePostorder();
+        if (!forward) {
+            for (int k = 0, j = order.length - 1; k < j; k++, j--) {
+                int b = order[k];
+                order[k] = order[j];
+                order[j] = b;
+            }
+        }
+        // blocks to take again, a queue going round order so that each block is at most once in it
+        int[] queue = new int[order.length];
+        boolean[] queued = new boolean[blocks];
+        int head = 0;
+        int count = order.length;
+        System.arraycopy(order, 0, queue, 0, order.length);
+        for (int b : order) {
+            queued[b] = true;
+        }
+
+        while (count > 0) {
+            int b = queue[head];
+            head = (head + 1) % queue.length;
+            count--;
+            queued[b] = false;
+
+            // the value flowing in, from the predecessors going forward and the successors going backward
+            int edges = forward ? graph.predecessorCount(b) : graph.successorCount(b);
+            BitSet value;
+            if ((forward && b == 0) || (!forward && edges == 0)) {
+                value = (BitSet) boundary.clone();
+            } else {
+                value = top(meet, width);
+            }
+            for (int e = 0; e < edges; e++) {
+                int other = forward ? graph.predecessor(b, e) : graph.successor(b, e);
+                BitSet along = forward ? dataflow.out[other] : dataflow.in[other];
+                if (meet == Meet.MAY) {
+                    value.or(along);
+                } else {
+                    value.and(along);
+                }
+            }
+            if (forward) {
+                dataflow.in[b] = (BitSet) value.clone();
+            } else {
+                dataflow.out[b] = (BitSet) value.clone();
+            }
+
+            transfer.apply(b, value);
+            BitSet before = forward ? dataflow.out[b] : dataflow.in[b];
+            if (value.equals(before)) {
+                continue;
+            }
+            if (forward) {
+                dataflow.out[b] = value;
+            } else {
+                dataflow.in[b] = value;
+            }
+            int next = forward ? graph.successorCount(b) : graph.predecessorCount(b);
+            for (int e = 0; e < next; e++) {
+                int other = forward ? graph.successor(b, e) : graph.predecessor(b, e);
+                if (!queued[other] && graph.isReachable(other)) {
+                    queued[other] = true;
+                    queue[(head + count) % queue.length] = other;
+                    count++;
+                }
+            }
+        }
+        return dataflow;
+    }
+
+    private static BitSet top(Meet meet, int width) {
+        BitSet value = new BitSet(width);
+        if (meet == Meet.MUST) {
+            value.set(0, width);
+        }
+        return value;
+    }
+
+    // the value at the start of block
+    public BitSet in(int block) {
+        return in[block];
+    }
+
+    // the value at the end of block
+    public BitSet out(int block) {
+        return out[block];
+    }
+
+}
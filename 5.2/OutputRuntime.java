@@ -0,0 +1,130 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/*
+ * Runtime the Output class calls for read() and print, in place of a
+ * Scanner per value read and a println per value printed.
+ *
+ * Input comes from System.in a block at a time, and each int is parsed
+ * straight from its bytes, tokens being separated by whitespace as for
+ * Scanner. Reading starts over when System.in is replaced, as Runner
+ * does for each program. Output is formatted into a buffer of bytes
+ * that goes to System.out when it fills up, before waiting for input and
+ * on flush(), which run() calls before returning and main() when run()
+ * throws.
+ */
+public final class OutputRuntime {
+
+    private static final int BUFFER = 1 << 16;
+
+    private static final byte[] SEPARATOR = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+    // the longest int printed, -2147483648, and the line separator after it
+    private static final int LONGEST = 11 + SEPARATOR.length;
+
+    private static final byte[] input = new byte[BUFFER];
+    private static InputStream source;
+    private static int position = 0;
+    private static int limit = 0;
+    private static byte[] token = new byte[16];
+
+    private static final byte[] output = new byte[BUFFER];
+    private static int length = 0;
+
+    private OutputRuntime() {
+    }
+
+    // the next int on System.in, failing with NoSuchElementException and NumberFormatException as Scanner does
+    public static int read() throws IOException {
+        if (System.in != source) {
+            source = System.in;
+            position = 0;
+            limit = 0;
+        }
+        int c = next();
+        while (c >= 0 && isWhitespace(c)) {
+            c = next();
+        }
+        if (c < 0) {
+            throw new NoSuchElementException();
+        }
+
+        int n = 0;
+        do {
+            if (n == token.length) {
+                token = Arrays.copyOf(token, 2 * n);
+            }
+            token[n++] = (byte) c;
+            c = next();
+        } while (c >= 0 && !isWhitespace(c));
+        return parse(token, n);
+    }
+
+    private static int next() throws IOException {
+        if (position == limit) {
+            flush(); // whatever was printed before the program waits for input
+            limit = Math.max(source.read(input, 0, BUFFER), 0);
+            position = 0;
+            if (limit == 0) {
+                return -1;
+            }
+        }
+        return input[position++] & 0xFF;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c < 0x80 && Character.isWhitespace(c);
+    }
+
+    // up to 9 digits cannot overflow, anything else is left to Integer.parseInt, failing just as it does
+    private static int parse(byte[] token, int n) {
+        boolean negative = (token[0] == '-');
+        int start = (negative || token[0] == '+') ? 1 : 0;
+        if (n > start && n - start <= 9) {
+            int value = 0;
+            int i = start;
+            while (i < n && token[i] >= '0' && token[i] <= '9') {
+                value = 10 * value + (token[i] - '0');
+                i++;
+            }
+            if (i == n) {
+                return negative ? -value : value;
+            }
+        }
+        return Integer.parseInt(new String(token, 0, n, Charset.defaultCharset()));
+    }
+
+    // value and the line separator, as println would print them
+    public static void print(int value) {
+        if (length + LONGEST > output.length) {
+            flush();
+        }
+        int rest = (value < 0) ? value : -value; // negative, as -Integer.MIN_VALUE is not an int
+        int digits = 1;
+        for (int i = rest / 10; i != 0; i /= 10) {
+            digits++;
+        }
+        if (value < 0) {
+            output[length++] = '-';
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            output[i] = (byte) ('0' - rest % 10);
+            rest /= 10;
+        }
+        length += digits;
+        for (byte b : SEPARATOR) {
+            output[length++] = b;
+        }
+    }
+
+    public static void flush() {
+        if (length > 0) {
+            System.out.write(output, 0, length);
+            length = 0;
+        }
+        System.out.flush();
+    }
+
+}
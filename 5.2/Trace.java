@@ -0,0 +1,153 @@
+import java.io.*;
+
+/*
+ * Tracing of the front end: the tokens the parser moves onto, the
+ * productions it enters and the instructions it emits. The sink is
+ * chosen once at startup by the trace system property:
+ *
+ *      -Dtrace=text        events printed on System.out, tokens as "token = <token>"
+ *      -Dtrace=tokens      just the tokens printed, as the lab's parsers always did
+ *      -Dtrace=<path>      events written to a buffered binary trace file
+ *
+ * Without the property ENABLED is a false constant, so the JIT drops
+ * every call along with the code guarded by it.
+ *
+ * Each record of a binary trace starts with its kind, TOKEN (tag, line
+ * and lexeme follow), ENTER (production name) or EMIT (opcode ordinal
+ * and operand), written as by DataOutputStream.
+ */
+public final class Trace {
+
+    public static final byte TOKEN = 0;
+    public static final byte ENTER = 1;
+    public static final byte EMIT = 2;
+
+    private interface Sink {
+
+        void token(Token token, int line);
+
+        void enter(String production);
+
+        void emit(Enum<?> opCode, int operand);
+    }
+
+    private static final Sink SINK = open(System.getProperty("trace"));
+
+    public static final boolean ENABLED = (SINK != null);
+
+    private Trace() {
+    }
+
+    private static Sink open(String trace) {
+        if (trace == null || trace.isEmpty()) {
+            return null;
+        } else if (trace.equals("text")) {
+            return new TextSink(false);
+        } else if (trace.equals("tokens")) {
+            return new TextSink(true);
+        }
+        try {
+            return new BinarySink(trace);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void token(Token token, int line) {
+        if (ENABLED) {
+            SINK.token(token, line);
+        }
+    }
+
+    public static void enter(String production) {
+        if (ENABLED) {
+            SINK.enter(production);
+        }
+    }
+
+    public static void emit(Enum<?> opCode, int operand) {
+        if (ENABLED) {
+            SINK.emit(opCode, operand);
+        }
+    }
+
+    private static final class TextSink implements Sink {
+
+        private final boolean tokensOnly;
+
+        private TextSink(boolean tokensOnly) {
+            this.tokensOnly = tokensOnly;
+        }
+
+        @Override
+        public void token(Token token, int line) {
+            System.out.println("token = " + token);
+        }
+
+        @Override
+        public void enter(String production) {
+            if (!tokensOnly) {
+                System.out.println("enter <" + production + ">");
+            }
+        }
+
+        @Override
+        public void emit(Enum<?> opCode, int operand) {
+            if (!tokensOnly) {
+                System.out.println("emit " + opCode.name().toLowerCase() + " " + operand);
+            }
+        }
+    }
+
+    private static final class BinarySink implements Sink {
+
+        private final DataOutputStream out;
+
+        private BinarySink(String path) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+
+        @Override
+        public void token(Token token, int line) {
+            try {
+                out.writeByte(TOKEN);
+                out.writeInt(token.tag);
+                out.writeInt(line);
+                out.writeUTF(token.getLexeme() == null ? "" : token.getLexeme());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void enter(String production) {
+            try {
+                out.writeByte(ENTER);
+                out.writeUTF(production);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void emit(Enum<?> opCode, int operand) {
+            try {
+                out.writeByte(EMIT);
+                out.writeShort(opCode.ordinal());
+                out.writeInt(operand);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,626 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+ * Assembler of the Output class straight from the instructions of a
+ * CodeGenerator, as Jasmin does from Output.j: run() holds the
+ * instructions followed by a flush of OutputRuntime and return, next to
+ * the same <init> and main methods HEADER and FOOTER declare.
+ *
+ * The class is for Java 8 (major version 52), whose verifier wants a
+ * StackMapTable frame at every branch target. Every value is an int, so
+ * a frame is just the depth of the operand stack and the locals stored
+ * on every path reaching the target, found by a dataflow over the labels
+ * of run(). Instructions no path reaches are left out. Branches are
+ * backpatched once every label has its offset, all of them as goto_w
+ * when run() is too long for 16-bit offsets.
+ */
+public final class ClassFile {
+
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SUPER  = 0x0020;
+
+    // JVM opcodes
+    private static final int ICONST_0      = 0x03;
+    private static final int BIPUSH        = 0x10;
+    private static final int SIPUSH        = 0x11;
+    private static final int LDC           = 0x12;
+    private static final int LDC_W         = 0x13;
+    private static final int ILOAD         = 0x15;
+    private static final int ILOAD_0       = 0x1a;
+    private static final int ALOAD_0       = 0x2a;
+    private static final int ISTORE        = 0x36;
+    private static final int ISTORE_0      = 0x3b;
+    private static final int POP           = 0x57;
+    private static final int DUP           = 0x59;
+    private static final int IADD          = 0x60;
+    private static final int ISUB          = 0x64;
+    private static final int IMUL          = 0x68;
+    private static final int IDIV          = 0x6c;
+    private static final int IREM          = 0x70;
+    private static final int INEG          = 0x74;
+    private static final int ISHL          = 0x78;
+    private static final int ISHR          = 0x7a;
+    private static final int IUSHR         = 0x7c;
+    private static final int IAND          = 0x7e;
+    private static final int IOR           = 0x80;
+    private static final int IXOR          = 0x82;
+    private static final int IINC          = 0x84;
+    private static final int IFEQ          = 0x99;
+    private static final int IFNE          = 0x9a;
+    private static final int IF_ICMPEQ     = 0x9f;
+    private static final int IF_ICMPNE     = 0xa0;
+    private static final int IF_ICMPLT     = 0xa1;
+    private static final int IF_ICMPGE     = 0xa2;
+    private static final int IF_ICMPGT     = 0xa3;
+    private static final int IF_ICMPLE     = 0xa4;
+    private static final int GOTO          = 0xa7;
+    private static final int RETURN        = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC  = 0xb8;
+    private static final int ATHROW        = 0xbf;
+    private static final int WIDE          = 0xc4;
+    private static final int GOTO_W        = 0xc8;
+
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_INTEGER = 1;
+    private static final int ITEM_OBJECT = 7;
+
+    private final CodeGenerator code;
+    private final ConstantPool pool = new ConstantPool();
+
+    // stack depth and locals stored at each label, depth -1 while no path is known to reach it
+    private final int[] depths;
+    private final BitSet[] stored;
+    private final BitSet targets = new BitSet();
+
+    // run() as last assembled, with the frames of its branch targets
+    private Bytes run;
+    private final List<Integer> framePcs = new ArrayList<>();
+    private final List<Integer> frameDepths = new ArrayList<>();
+    private final List<BitSet> frameLocals = new ArrayList<>();
+    private int maxStack;
+    private int maxLocals;
+
+    private ClassFile(CodeGenerator code) {
+        this.code = code;
+        int labels = 0;
+        for (int i = 0; i < code.size(); i++) {
+            if (code.opCode(i) == OpCode.LABEL || Instruction.isBranch(code.opCode(i))) {
+                labels = Math.max(labels, code.operand(i) + 1);
+            }
+        }
+        depths = new int[labels];
+        Arrays.fill(depths, -1);
+        stored = new BitSet[labels];
+    }
+
+    public static byte[] assemble(CodeGenerator code) {
+        ClassFile classFile = new ClassFile(code);
+        classFile.analyse();
+        if (!classFile.assembleRun(false)) {
+            classFile.assembleRun(true);
+        }
+        return classFile.toBytes();
+    }
+
+    private static int opcode(OpCode opCode) {
+        switch (opCode) {
+            case POP:       return POP;
+            case DUP:       return DUP;
+            case IADD:      return IADD;
+            case ISUB:      return ISUB;
+            case IMUL:      return IMUL;
+            case IDIV:      return IDIV;
+            case IREM:      return IREM;
+            case INEG:      return INEG;
+            case ISHL:      return ISHL;
+            case ISHR:      return ISHR;
+            case IUSHR:     return IUSHR;
+            case IAND:      return IAND;
+            case IOR:       return IOR;
+            case IXOR:      return IXOR;
+            case IFNE:      return IFNE;
+            case IF_ICMPEQ: return IF_ICMPEQ;
+            case IF_ICMPNE: return IF_ICMPNE;
+            case IF_ICMPLT: return IF_ICMPLT;
+            case IF_ICMPGE: return IF_ICMPGE;
+            case IF_ICMPGT: return IF_ICMPGT;
+            case IF_ICMPLE: return IF_ICMPLE;
+            case GOTO:      return GOTO;
+            default:
+                throw new IllegalArgumentException("no single JVM opcode for " + opCode);
+        }
+    }
+
+    // the conditional branch taken exactly when the given one is not
+    private static int negate(int opcode) {
+        switch (opcode) {
+            case IFNE:      return IFEQ;
+            case IF_ICMPEQ: return IF_ICMPNE;
+            case IF_ICMPNE: return IF_ICMPEQ;
+            case IF_ICMPLT: return IF_ICMPGE;
+            case IF_ICMPGE: return IF_ICMPLT;
+            case IF_ICMPGT: return IF_ICMPLE;
+            default:        return IF_ICMPGT;
+        }
+    }
+
+    /*
+     * Finds the state at every label, going through run() until nothing
+     * changes: a label takes the state of the first path reaching it, and
+     * then keeps only the locals stored on every other one too.
+     */
+    private void analyse() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            boolean reachable = true;
+            int depth = 0;
+            BitSet locals = new BitSet();
+            for (int i = 0; i < code.size(); i++) {
+                OpCode opCode = code.opCode(i);
+                int operand = code.operand(i);
+                if (opCode == OpCode.LABEL) {
+                    if (reachable) {
+                        changed |= merge(operand, depth, locals);
+                    }
+                    reachable = (depths[operand] >= 0);
+                    if (reachable) {
+                        depth = depths[operand];
+                        locals = (BitSet) stored[operand].clone();
+                    }
+                    continue;
+                }
+                if (!reachable) {
+                    continue;
+                }
+
+                depth += Instruction.stackEffect(opCode, operand);
+                if (depth < 0) {
+                    throw new IllegalStateException("operand stack underflow at " + opCode + " " + operand);
+                }
+                if (opCode == OpCode.ISTORE) {
+                    locals.set(operand);
+                } else if (Instruction.isBranch(opCode)) {
+                    targets.set(operand);
+                    changed |= merge(operand, depth, locals);
+                    reachable = (opCode != OpCode.GOTO);
+                }
+            }
+        }
+    }
+
+    private boolean merge(int label, int depth, BitSet locals) {
+        if (depths[label] < 0) {
+            depths[label] = depth;
+            stored[label] = (BitSet) locals.clone();
+            return true;
+        } else if (depths[label] != depth) {
+            throw new IllegalStateException("operand stack of depth " + depth + " and " + depths[label] + " at L" + label);
+        }
+        int before = stored[label].cardinality();
+        stored[label].and(locals);
+        return stored[label].cardinality() != before;
+    }
+
+    /*
+     * Assembles the code of run(), returning false if some branch does
+     * not fit a 16-bit offset and far was not set.
+     */
+    private boolean assembleRun(boolean far) {
+        run = new Bytes();
+        framePcs.clear();
+        frameDepths.clear();
+        frameLocals.clear();
+        maxStack = 0;
+        maxLocals = 0;
+
+        int[] pcs = new int[depths.length];
+        Bytes fixups = new Bytes(); // pc of each branch, position of its offset and label, in turn
+
+        boolean reachable = true;
+        int depth = 0;
+        BitSet locals = new BitSet();
+        for (int i = 0; i < code.size(); i++) {
+            OpCode opCode = code.opCode(i);
+            int operand = code.operand(i);
+            if (opCode == OpCode.LABEL) {
+                reachable = (depths[operand] >= 0);
+                if (reachable) {
+                    pcs[operand] = run.size();
+                    depth = depths[operand];
+                    locals = (BitSet) stored[operand].clone();
+                    if (targets.get(operand)) {
+                        frame(run.size(), depth, locals);
+                    }
+                }
+                continue;
+            }
+            if (!reachable) {
+                continue;
+            }
+
+            depth += Instruction.stackEffect(opCode, operand);
+            maxStack = Math.max(maxStack, depth);
+            switch (opCode) {
+                case LDC: {
+                    int index = pool.integer(operand);
+                    if (index < 256) {
+                        run.u1(LDC).u1(index);
+                    } else {
+                        run.u1(LDC_W).u2(index);
+                    }
+                    break;
+                }
+                case ICONST:
+                    run.u1(ICONST_0 + operand);
+                    break;
+                case BIPUSH:
+                    run.u1(BIPUSH).u1(operand);
+                    break;
+                case SIPUSH:
+                    run.u1(SIPUSH).u2(operand);
+                    break;
+                case ILOAD:
+                case ISTORE: {
+                    int opcode = (opCode == OpCode.ILOAD) ? ILOAD : ISTORE;
+                    if (operand <= 3) {
+                        run.u1(((opCode == OpCode.ILOAD) ? ILOAD_0 : ISTORE_0) + operand);
+                    } else if (operand < 256) {
+                        run.u1(opcode).u1(operand);
+                    } else {
+                        run.u1(WIDE).u1(opcode).u2(operand);
+                    }
+                    maxLocals = Math.max(maxLocals, operand + 1);
+                    if (opCode == OpCode.ISTORE) {
+                        locals.set(operand);
+                    }
+                    break;
+                }
+                case IINC: {
+                    int address = Instruction.iincAddress(operand);
+                    int increment = Instruction.iincIncrement(operand);
+                    if (address < 256 && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE) {
+                        run.u1(IINC).u1(address).u1(increment);
+                    } else {
+                        run.u1(WIDE).u1(IINC).u2(address).u2(increment);
+                    }
+                    maxLocals = Math.max(maxLocals, address + 1);
+                    break;
+                }
+                case INVOKESTATIC:
+                    run.u1(INVOKESTATIC).u2(pool.method("OutputRuntime", (operand == 1) ? "print" : "read", (operand == 1) ? "(I)V" : "()I"));
+                    break;
+                case IFNE:
+                case IF_ICMPEQ:
+                case IF_ICMPLE:
+                case IF_ICMPLT:
+                case IF_ICMPNE:
+                case IF_ICMPGE:
+                case IF_ICMPGT:
+                case GOTO: {
+                    int opcode = opcode(opCode);
+                    if (!far) {
+                        fixups.u4(run.size()).u4(run.size() + 1).u4(operand);
+                        run.u1(opcode).u2(0);
+                    } else if (opCode == OpCode.GOTO) {
+                        fixups.u4(run.size()).u4(run.size() + 1).u4(operand);
+                        run.u1(GOTO_W).u4(0);
+                    } else {
+                        // jumps over a goto_w to the label when the branch is not taken
+                        run.u1(negate(opcode)).u2(8);
+                        fixups.u4(run.size()).u4(run.size() + 1).u4(operand);
+                        run.u1(GOTO_W).u4(0);
+                        frame(run.size(), depth, locals);
+                    }
+                    reachable = (opCode != OpCode.GOTO);
+                    break;
+                }
+                default:
+                    run.u1(opcode(opCode));
+            }
+        }
+        if (reachable) {
+            run.u1(INVOKESTATIC).u2(pool.method("OutputRuntime", "flush", "()V"));
+            run.u1(RETURN);
+        }
+        if (run.size() > 65535) {
+            throw new IllegalStateException("run() takes " + run.size() + " bytes of code, more than a method can hold");
+        }
+
+        for (int k = 0; k < fixups.size(); k += 12) {
+            int pc = fixups.get4(k);
+            int position = fixups.get4(k + 4);
+            int offset = pcs[fixups.get4(k + 8)] - pc;
+            if (far) {
+                run.set4(position, offset);
+            } else if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                return false;
+            } else {
+                run.set2(position, offset);
+            }
+        }
+        return true;
+    }
+
+    // records the frame at pc, replacing the one of an earlier label at the same pc
+    private void frame(int pc, int depth, BitSet locals) {
+        int last = framePcs.size() - 1;
+        if (last >= 0 && framePcs.get(last) == pc) {
+            framePcs.remove(last);
+            frameDepths.remove(last);
+            frameLocals.remove(last);
+        }
+        framePcs.add(pc);
+        frameDepths.add(depth);
+        frameLocals.add((BitSet) locals.clone());
+    }
+
+    private Bytes stackMapTable() {
+        Bytes table = new Bytes();
+        table.u2(framePcs.size());
+        int previous = -1;
+        BitSet previousLocals = new BitSet();
+        for (int k = 0; k < framePcs.size(); k++) {
+            int pc = framePcs.get(k);
+            int delta = pc - previous - 1;
+            BitSet locals = frameLocals.get(k);
+            previous = pc;
+            if (frameDepths.get(k) == 0 && locals.equals(previousLocals)) {
+                if (delta < 64) {
+                    table.u1(delta); // same_frame
+                } else {
+                    table.u1(SAME_FRAME_EXTENDED).u2(delta);
+                }
+                continue;
+            }
+            previousLocals = locals;
+
+            table.u1(FULL_FRAME).u2(delta);
+            table.u2(locals.length());
+            for (int local = 0; local < locals.length(); local++) {
+                table.u1(locals.get(local) ? ITEM_INTEGER : 0); // anything not stored on every path is top
+            }
+            table.u2(frameDepths.get(k));
+            for (int i = 0; i < frameDepths.get(k); i++) {
+                table.u1(ITEM_INTEGER);
+            }
+        }
+        return table;
+    }
+
+    private byte[] toBytes() {
+        Bytes methods = new Bytes();
+        methods.u2(3);
+
+        Bytes init = new Bytes();
+        init.u1(ALOAD_0);
+        init.u1(INVOKESPECIAL).u2(pool.method("java/lang/Object", "<init>", "()V"));
+        init.u1(RETURN);
+        method(methods, ACC_PUBLIC, "<init>", "()V", 1, 1, init, null, null);
+
+        method(methods, ACC_PUBLIC | ACC_STATIC, "run", "()V", maxStack, maxLocals, run, null, framePcs.isEmpty() ? null : stackMapTable());
+
+        // run() at 0, return at 3 and the handler of anything run() throws at 4, flushing and throwing it again
+        Bytes main = new Bytes();
+        main.u1(INVOKESTATIC).u2(pool.method("Output", "run", "()V"));
+        main.u1(RETURN);
+        main.u1(INVOKESTATIC).u2(pool.method("OutputRuntime", "flush", "()V"));
+        main.u1(ATHROW);
+        Bytes handlers = new Bytes();
+        handlers.u2(1).u2(0).u2(3).u2(4).u2(0);
+        Bytes frames = new Bytes();
+        frames.u2(1).u1(SAME_LOCALS_1_STACK_ITEM + 4).u1(ITEM_OBJECT).u2(pool.classRef("java/lang/Throwable"));
+        method(methods, ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", 1, 1, main, handlers, frames);
+
+        int thisClass = pool.classRef("Output");
+        int superClass = pool.classRef("java/lang/Object");
+        int sourceFile = pool.utf8("SourceFile");
+        int source = pool.utf8(CodeGenerator.OUTPUT); // as Jasmin names it, so that stack traces read the same
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE).u2(0).u2(MAJOR_VERSION);
+        out.u2(pool.count).append(pool.bytes);
+        out.u2(ACC_PUBLIC | ACC_SUPER).u2(thisClass).u2(superClass);
+        out.u2(0); // interfaces
+        out.u2(0); // fields
+        out.append(methods);
+        out.u2(1);
+        out.u2(sourceFile).u4(2).u2(source);
+        return out.toByteArray();
+    }
+
+    // exceptionTable and stackMapTable start with their number of entries, no table being null
+    private void method(Bytes methods, int access, String name, String descriptor, int maxStack, int maxLocals,
+                        Bytes code, Bytes exceptionTable, Bytes stackMapTable) {
+        methods.u2(access).u2(pool.utf8(name)).u2(pool.utf8(descriptor));
+        methods.u2(1);
+        int length = 2 + 2 + 4 + code.size() + 2 + 2;
+        if (exceptionTable != null) {
+            length += exceptionTable.size() - 2;
+        }
+        if (stackMapTable != null) {
+            length += 2 + 4 + stackMapTable.size();
+        }
+        methods.u2(pool.utf8("Code")).u4(length);
+        methods.u2(maxStack).u2(maxLocals);
+        methods.u4(code.size()).append(code);
+        if (exceptionTable == null) {
+            methods.u2(0);
+        } else {
+            methods.append(exceptionTable);
+        }
+        if (stackMapTable == null) {
+            methods.u2(0);
+        } else {
+            methods.u2(1);
+            methods.u2(pool.utf8("StackMapTable")).u4(stackMapTable.size()).append(stackMapTable);
+        }
+    }
+
+    private static final class ConstantPool {
+
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int CLASS = 7;
+        private static final int FIELDREF = 9;
+        private static final int METHODREF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final Bytes bytes = new Bytes();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final Map<Integer, Integer> integers = new HashMap<>();
+        private int count = 1;
+
+        private int add() {
+            if (count == 65535) {
+                throw new IllegalStateException("too many constants for a class file");
+            }
+            return count++;
+        }
+
+        private int utf8(String value) {
+            Integer index = indices.get("utf8 " + value);
+            if (index == null) {
+                byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                bytes.u1(UTF8).u2(encoded.length).append(encoded);
+                index = add();
+                indices.put("utf8 " + value, index);
+            }
+            return index;
+        }
+
+        private int integer(int value) {
+            Integer index = integers.get(value);
+            if (index == null) {
+                bytes.u1(INTEGER).u4(value);
+                index = add();
+                integers.put(value, index);
+            }
+            return index;
+        }
+
+        private int classRef(String name) {
+            Integer index = indices.get("class " + name);
+            if (index == null) {
+                int utf8 = utf8(name);
+                bytes.u1(CLASS).u2(utf8);
+                index = add();
+                indices.put("class " + name, index);
+            }
+            return index;
+        }
+
+        private int member(int tag, String owner, String name, String descriptor) {
+            String key = tag + " " + owner + "." + name + descriptor;
+            Integer index = indices.get(key);
+            if (index == null) {
+                int classRef = classRef(owner);
+                int nameAndType = nameAndType(name, descriptor);
+                bytes.u1(tag).u2(classRef).u2(nameAndType);
+                index = add();
+                indices.put(key, index);
+            }
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            Integer index = indices.get("nameAndType " + name + descriptor);
+            if (index == null) {
+                int utf8Name = utf8(name);
+                int utf8Descriptor = utf8(descriptor);
+                bytes.u1(NAME_AND_TYPE).u2(utf8Name).u2(utf8Descriptor);
+                index = add();
+                indices.put("nameAndType " + name + descriptor, index);
+            }
+            return index;
+        }
+
+        private int field(String owner, String name, String descriptor) {
+            return member(FIELDREF, owner, name, descriptor);
+        }
+
+        private int method(String owner, String name, String descriptor) {
+            return member(METHODREF, owner, name, descriptor);
+        }
+    }
+
+    // growable big-endian byte buffer
+    private static final class Bytes {
+
+        private byte[] bytes = new byte[64];
+        private int size = 0;
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + more));
+            }
+        }
+
+        private Bytes u1(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        private Bytes u2(int value) {
+            ensure(2);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        private Bytes u4(int value) {
+            ensure(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+            return this;
+        }
+
+        private Bytes append(byte[] other) {
+            ensure(other.length);
+            System.arraycopy(other, 0, bytes, size, other.length);
+            size += other.length;
+            return this;
+        }
+
+        private Bytes append(Bytes other) {
+            ensure(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+            return this;
+        }
+
+        private void set2(int position, int value) {
+            bytes[position] = (byte) (value >>> 8);
+            bytes[position + 1] = (byte) value;
+        }
+
+        private void set4(int position, int value) {
+            set2(position, value >>> 16);
+            set2(position + 2, value);
+        }
+
+        private int get4(int position) {
+            return ((bytes[position] & 0xff) << 24) | ((bytes[position + 1] & 0xff) << 16)
+                    | ((bytes[position + 2] & 0xff) << 8) | (bytes[position + 3] & 0xff);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+}
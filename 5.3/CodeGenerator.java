@@ -1,18 +1,62 @@
-import java.util.LinkedList;
 import java.io.*;
+import java.lang.invoke.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Objects;
 
 public final class CodeGenerator {
 
-    private final LinkedList<Instruction> instructions = new LinkedList<>();
+    public static final String OUTPUT = "Output.j";
+
+    // Jasmin text is written out in chunks of about this many characters
+    private static final int CHUNK = 1 << 13;
+
+    private static final OpCode[] OPCODES = OpCode.values();
+
+    // whether optimize() reports on System.err what the passes removed, on with -Dstats=true
+    private static final boolean STATS = Boolean.parseBoolean(System.getProperty("stats", "false"));
+
+    // instructions packed as pairs of opcode ordinal and operand, -1 if there is none
+    private int[] instructions = new int[2 * 64];
+    private int size = 0;
 
     private int label = 0;
 
     public void emit(OpCode opCode) {
-        instructions.add(new Instruction(opCode));
+        emit(opCode, -1);
     }
 
     public void emit(OpCode opCode, int operand) {
-        instructions.add(new Instruction(opCode, operand));
+        Trace.emit(opCode, operand);
+        add(opCode, operand);
+    }
+
+    private void add(OpCode opCode, int operand) {
+        if (2 * size == instructions.length) {
+            instructions = Arrays.copyOf(instructions, 4 * size);
+        }
+        instructions[2 * size] = opCode.ordinal();
+        instructions[2 * size + 1] = operand;
+        size++;
+    }
+
+    // number of instructions emitted so far, read by index through opCode and operand without allocating
+    public int size() {
+        return size;
+    }
+
+    public OpCode opCode(int index) {
+        return OPCODES[instructions[2 * Objects.checkIndex(index, size)]];
+    }
+
+    public int operand(int index) {
+        return instructions[2 * Objects.checkIndex(index, size) + 1];
+    }
+
+    // drops the last count instructions, as the Translator does when folding the constants they push
+    public void removeLast(int count) {
+        Objects.checkFromToIndex(size - count, size, size);
+        size -= count;
     }
 
     public void emitOpIfIn(Translator.Op op, Translator.Op... ops) {
@@ -35,18 +79,174 @@ public final class CodeGenerator {
         return label++;
     }
 
+    // runs the optimization passes over the code emitted so far
+    public void optimize() {
+        JumpOptimizer.optimize(this);
+        ConstantPropagator propagation = ConstantPropagator.optimize(this);
+        if (propagation.branches() > 0 || propagation.removed() != 0) {
+            JumpOptimizer.optimize(this); // gotos to the next block and labels no longer used
+        }
+        if (STATS) {
+            System.err.printf("constant propagation: %d branches and %d instructions removed%n",
+                    propagation.branches(), propagation.removed());
+        }
+        LoopOptimizer.optimize(this);
+        LocalOptimizer.optimize(this);
+        StrengthReducer.reduce(this);
+        InstructionSelector.select(this);
+    }
+
+    // number of labels handed out so far, all below it
+    int labels() {
+        return label;
+    }
+
+    // replaces the code with the first size instructions packed in instructions, whose labels are below labels
+    void replace(int[] instructions, int size, int labels) {
+        this.instructions = Arrays.copyOf(instructions, Math.max(2 * size, 2));
+        this.size = size;
+        this.label = labels;
+    }
+
+    // appends the code generated by fragment on its own, numbering its labels after the ones of this generator
+    public void append(CodeGenerator fragment, int[] addresses) {
+        for (int i = 0; i < fragment.size; i++) {
+            OpCode opCode = fragment.opCode(i);
+            add(opCode, Instruction.relocate(opCode, fragment.operand(i), label, addresses));
+        }
+        label += fragment.label;
+    }
+
+    /*
+     * Deepest the operand stack of run() gets on any path through the
+     * code. A label takes the depth of the first path reaching it, fall
+     * through or branch, which the SDT leaves the same on every path, and
+     * the code is gone through until no label is reached anew. An iinc
+     * toJasmin() spells out pushes two values on the way.
+     */
+    public int maxStack() {
+        int[] depths = new int[label];
+        Arrays.fill(depths, -1);
+        int max = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            boolean reachable = true;
+            int depth = 0;
+            for (int i = 0; i < size; i++) {
+                OpCode opCode = opCode(i);
+                int operand = operand(i);
+                if (opCode == OpCode.LABEL) {
+                    if (reachable && depths[operand] < 0) {
+                        depths[operand] = depth;
+                        changed = true;
+                    }
+                    reachable = (depths[operand] >= 0);
+                    depth = Math.max(depths[operand], 0);
+                } else if (reachable) {
+                    depth += Instruction.stackEffect(opCode, operand);
+                    max = Math.max(max, depth);
+                    if (opCode == OpCode.IINC && InstructionSelector.spelledOut(operand)) {
+                        max = Math.max(max, depth + 2);
+                    }
+                    if (Instruction.isBranch(opCode)) {
+                        if (depths[operand] < 0) {
+                            depths[operand] = depth;
+                            changed = true;
+                        }
+                        reachable = (opCode != OpCode.GOTO);
+                    }
+                }
+            }
+        }
+        return max;
+    }
+
+    // local variables run() needs, one past the highest address loaded or stored, as SymbolTable hands them out in order
+    public int maxLocals() {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            OpCode opCode = opCode(i);
+            if (opCode == OpCode.ILOAD || opCode == OpCode.ISTORE) {
+                max = Math.max(max, operand(i) + 1);
+            } else if (opCode == OpCode.IINC) {
+                max = Math.max(max, Instruction.iincAddress(operand(i)) + 1);
+            }
+        }
+        return max;
+    }
+
     public void toJasmin() throws IOException {
-        PrintWriter out = new PrintWriter(new FileWriter("Output.j"));
-        StringBuilder sb = new StringBuilder();
-        sb.append(HEADER);
-        while (!instructions.isEmpty()) {
-            Instruction instruction = instructions.remove();
-            sb.append(instruction.toJasmin());
+        toJasmin(OUTPUT);
+    }
+
+    public void toJasmin(String path) throws IOException {
+        try (Writer out = new FileWriter(path)) {
+            toJasmin(out);
         }
-        sb.append(FOOTER);
-        out.println(sb);
+    }
+
+    /*
+     * Writes the program in Jasmin syntax to out. Instructions are
+     * formatted into a single reusable buffer, handed to out whenever it
+     * fills up, so no text is allocated per instruction and memory does
+     * not grow with the size of the program. The limits of run() are the
+     * exact ones, and Jasmin turns an iload or istore of an address past
+     * 255 into its wide form by itself. The iincs Jasmin would make no
+     * shorter are written as the instructions they replaced, one at a time.
+     */
+    public void toJasmin(Writer out) throws IOException {
+        StringBuilder lines = new StringBuilder(2 * CHUNK);
+        char[] chars = new char[2 * CHUNK];
+        out.write(HEADER);
+        out.write(" .limit stack " + maxStack() + "\n");
+        out.write(" .limit locals " + maxLocals() + "\n");
+        for (int i = 0; i < size; i++) {
+            if (opCode(i) == OpCode.IINC) {
+                InstructionSelector.toJasmin(operand(i), lines);
+            } else {
+                Instruction.toJasmin(opCode(i), operand(i), lines);
+            }
+            if (lines.length() >= CHUNK) {
+                drain(lines, chars, out);
+            }
+        }
+        drain(lines, chars, out);
+        out.write(FOOTER);
+        out.write(System.lineSeparator());
         out.flush();
-        out.close();
+    }
+
+    private static void drain(StringBuilder lines, char[] chars, Writer out) throws IOException {
+        int length = lines.length();
+        lines.getChars(0, length, chars, 0);
+        out.write(chars, 0, length);
+        lines.setLength(0);
+    }
+
+    // the Output class Jasmin would assemble from toJasmin(), without going through its text
+    public byte[] toClass() {
+        return ClassFile.assemble(this);
+    }
+
+    public void toClass(String path) throws IOException {
+        Files.write(Paths.get(path), toClass());
+    }
+
+    /*
+     * Runs the program in this JVM: the Output class is defined as a
+     * hidden class, under a name of its own and unloaded once nothing
+     * refers to it, and its run() is called. Whatever run() throws, such
+     * as an ArithmeticException, is thrown again, once what it printed is
+     * flushed as main() would.
+     */
+    public void run() throws Throwable {
+        MethodHandles.Lookup output = MethodHandles.lookup().defineHiddenClass(toClass(), true);
+        try {
+            output.findStatic(output.lookupClass(), "run", MethodType.methodType(void.class)).invokeExact();
+        } finally {
+            OutputRuntime.flush();
+        }
     }
 
     private static final String HEADER = ".class public Output \n"
@@ -58,36 +258,23 @@ public final class CodeGenerator {
             + " return\n"
             + ".end method\n"
             + "\n"
-            + ".method public static print(I)V\n"
-            + " .limit stack 2\n"
-            + " getstatic java/lang/System/out Ljava/io/PrintStream;\n"
-            + " iload_0 \n"
-            + " invokestatic java/lang/Integer/toString(I)Ljava/lang/String;\n"
-            + " invokevirtual java/io/PrintStream/println(Ljava/lang/String;)V\n"
-            + " return\n"
-            + ".end method\n"
-            + "\n"
-            + ".method public static read()I\n"
-            + " .limit stack 3\n"
-            + " new java/util/Scanner\n"
-            + " dup\n"
-            + " getstatic java/lang/System/in Ljava/io/InputStream;\n"
-            + " invokespecial java/util/Scanner/<init>(Ljava/io/InputStream;)V\n"
-            + " invokevirtual java/util/Scanner/next()Ljava/lang/String;\n"
-            + " invokestatic java/lang/Integer.parseInt(Ljava/lang/String;)I\n"
-            + " ireturn\n"
-            + ".end method\n"
-            + "\n"
-            + ".method public static run()V\n"
-            + " .limit stack 1024\n"
-            + " .limit locals 256\n";
+            + ".method public static run()V\n";
 
-    private static final String FOOTER = " return\n"
+    // run() flushes what it printed before returning, and main() before passing on what run() throws
+    private static final String FOOTER = " invokestatic OutputRuntime/flush()V\n"
+            + " return\n"
             + ".end method\n"
             + "\n"
             + ".method public static main([Ljava/lang/String;)V\n"
+            + " .limit stack 1\n"
+            + " .catch all from Run to Return using Flush\n"
+            + "Run:\n"
             + " invokestatic Output/run()V\n"
+            + "Return:\n"
             + " return\n"
+            + "Flush:\n"
+            + " invokestatic OutputRuntime/flush()V\n"
+            + " athrow\n"
             + ".end method\n";
 
 }
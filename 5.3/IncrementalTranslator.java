@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+ * Incremental front end of the Translator, for sources edited in place.
+ *
+ * The source is kept as the elements of its top-level <statlist>, each
+ * running up to and including the ';' that ends it (the last one up to
+ * EOF), with its tokens and with the code and symbols its <stat>
+ * translates to on its own, labels and variable addresses numbered from
+ * 0. An edit re-lexes the elements it touches, carrying on into the
+ * following ones until the tokens end with a ';' right where an element
+ * starts, and re-parses just the elements that changed. prog() then
+ * relocates the code of every element into the whole program, checking
+ * that each variable is assigned before it is used, as the SymbolTable
+ * of a full run would.
+ *
+ * Elements end at the ';' tokens outside any parenthesis or brace, which
+ * the Lexer returns without looking past them, so text after one never
+ * changes the tokens before it. After a lexical error lexing goes on from
+ * the byte after the start of the failing token, unless the error reached
+ * the end of the text and may thus depend on what comes next.
+ *
+ * Offsets are in bytes of the UTF-8 encoding of the source, as in
+ * TokenBuffer.
+ */
+public final class IncrementalTranslator {
+
+    private static final int CAPACITY = 16;
+
+    private static final class Element {
+
+        private byte[] text;
+        private int newlines;
+
+        // tokens up to the first lexical error, offsets relative to the element and lines to the line it starts on
+        private int[] tags = new int[CAPACITY];
+        private long[] offsets = new long[CAPACITY];
+        private int[] lengths = new int[CAPACITY];
+        private int[] lines = new int[CAPACITY];
+        private int[] values = new int[CAPACITY];
+        private int size = 0;
+        private final Map<String, Word> symbols = new HashMap<>();
+        private final List<Word> words = new ArrayList<>();
+        private final List<String> numbers = new ArrayList<>();
+        private SyntaxError error;
+
+        // translation of the element, parsed at line parsedLine
+        private CodeGenerator code;
+        private SymbolTable table;
+        private RuntimeException failure;
+        private int parsedLine;
+
+        private void add(Token token, Lexer lexer, long offset, int line) {
+            if (error != null) {
+                return;
+            }
+            if (size == tags.length) {
+                int capacity = size * 2;
+                tags = Arrays.copyOf(tags, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            tags[size] = token.tag;
+            offsets[size] = offset;
+            lengths[size] = (int) (lexer.getEnd() - lexer.getStart());
+            lines[size] = line;
+            values[size] = (token.tag == Tag.ID) ? intern(((Word) token).getLexeme()) : TokenBuffer.valueOf(token, lexer, numbers);
+            size++;
+        }
+
+        // ids of identifiers are renumbered, as the element may be lexed by more than one Lexer
+        private int intern(String lexeme) {
+            Word word = symbols.get(lexeme);
+            if (word == null) {
+                word = new Word(Tag.ID, lexeme, words.size());
+                symbols.put(lexeme, word);
+                words.add(word);
+            }
+            return word.getId();
+        }
+
+        private void fail(SyntaxError e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+
+        private void close(byte[] source, int from, int to, int newlines) {
+            this.text = Arrays.copyOfRange(source, from, to);
+            this.newlines = newlines;
+        }
+
+        private TokenBuffer tokens(int line) {
+            int[] absolute = new int[size];
+            for (int i = 0; i < size; i++) {
+                absolute[i] = lines[i] + line;
+            }
+            return new TokenBuffer(tags, offsets, lengths, absolute, values, size, words.toArray(new Word[0]), numbers, error);
+        }
+
+        private void parse(int line, boolean first) {
+            code = new CodeGenerator();
+            table = new SymbolTable(true);
+            failure = null;
+            parsedLine = line;
+            try {
+                new Translator(tokens(line), table, code).element(first);
+            } catch (RuntimeException e) {
+                failure = e; // thrown again by prog(), where a full run would throw it
+            }
+        }
+    }
+
+    private final List<Element> elements = new ArrayList<>();
+    private CodeGenerator code;
+
+    // element the last edit started from, with its offset and line, as edits tend to be close to each other
+    private int cursor = 0;
+    private int cursorStart = 0;
+    private int cursorLine = 1;
+
+    public IncrementalTranslator(String source) {
+        elements.addAll(split(source.getBytes(StandardCharsets.UTF_8), true));
+        int line = 1;
+        for (int i = 0; i < elements.size(); i++) {
+            elements.get(i).parse(line, i == 0);
+            line += elements.get(i).newlines;
+        }
+    }
+
+    /*
+     * Splits text into elements, the last one ending with EOF if end is
+     * set. Otherwise whatever follows the last ';' is left out, as its
+     * tokens depend on the text after it.
+     */
+    private static List<Element> split(byte[] text, boolean end) {
+        List<Element> elements = new ArrayList<>();
+        Element element = new Element();
+        int elementStart = 0;
+        int elementLine = 1;
+        int depth = 0;
+
+        Lexer lexer = new Lexer();
+        Source src = Source.of(text, 0);
+        int lines = 0;
+        while (true) {
+            Token token;
+            int line;
+            try {
+                token = lexer.next(src);
+                line = lines + lexer.getLine();
+                element.add(token, lexer, lexer.getStart() - elementStart, line - elementLine);
+            } catch (SyntaxError e) {
+                element.fail(e);
+                if (src.offset() >= text.length) {
+                    if (end) {
+                        element.close(text, elementStart, text.length, lines + lexer.getLine() - elementLine);
+                        elements.add(element);
+                    }
+                    return elements;
+                }
+                int resume = (int) lexer.getStart() + 1; // offsets into text, an array, fit in an int
+                lines += lexer.getLine() - 1;
+                lexer = new Lexer();
+                src = Source.of(text, resume);
+                continue;
+            }
+
+            switch (token.tag) {
+                case '(':
+                case '{':
+                    depth++;
+                    break;
+                case ')':
+                case '}':
+                    depth--;
+                    break;
+            }
+
+            if (token.tag == Tag.EOF) {
+                if (end) {
+                    element.close(text, elementStart, text.length, line - elementLine);
+                    elements.add(element);
+                }
+                return elements;
+            } else if (token.tag == ';' && depth == 0) {
+                int elementEnd = (int) lexer.getEnd();
+                element.close(text, elementStart, elementEnd, line - elementLine);
+                elements.add(element);
+                element = new Element();
+                elementStart = elementEnd;
+                elementLine = line;
+            }
+        }
+    }
+
+    /*
+     * Replaces the removed bytes from offset on with inserted, re-lexing
+     * and re-parsing the elements the edit touches.
+     */
+    public void edit(int offset, int removed, String inserted) {
+        int first = cursor;
+        int start = cursorStart;
+        int line = cursorLine;
+        while (first > 0 && offset < start) {
+            first--;
+            start -= elements.get(first).text.length;
+            line -= elements.get(first).newlines;
+        }
+        while (first < elements.size() - 1 && offset >= start + elements.get(first).text.length) {
+            start += elements.get(first).text.length;
+            line += elements.get(first).newlines;
+            first++;
+        }
+        int end = offset + removed;
+        int next = first;
+        int nextStart = start;
+        do {
+            nextStart += elements.get(next).text.length;
+            next++;
+        } while (next < elements.size() && end > nextStart);
+        if (offset < 0 || removed < 0 || end > nextStart) {
+            throw new IllegalArgumentException("edit out of the source: " + offset + ", " + removed);
+        }
+
+        byte[] old = new byte[nextStart - start];
+        int length = 0;
+        for (int i = first; i < next; i++) {
+            byte[] part = elements.get(i).text;
+            System.arraycopy(part, 0, old, length, part.length);
+            length += part.length;
+        }
+        byte[] insert = inserted.getBytes(StandardCharsets.UTF_8);
+        byte[] text = new byte[old.length - removed + insert.length];
+        System.arraycopy(old, 0, text, 0, offset - start);
+        System.arraycopy(insert, 0, text, offset - start, insert.length);
+        System.arraycopy(old, end - start, text, offset - start + insert.length, nextStart - end);
+
+        // re-lexes until the tokens line up with the start of an element again
+        List<Element> changed = new ArrayList<>();
+        while (true) {
+            List<Element> split = split(text, next == elements.size());
+            int done = 0;
+            for (Element element : split) {
+                done += element.text.length;
+            }
+            changed.addAll(split);
+            if (done == text.length) {
+                break;
+            }
+            byte[] following = elements.get(next++).text;
+            byte[] rest = Arrays.copyOfRange(text, done, text.length + following.length);
+            System.arraycopy(following, 0, rest, text.length - done, following.length);
+            text = rest;
+        }
+
+        int common = Math.min(changed.size(), next - first);
+        for (int i = 0; i < common; i++) {
+            elements.set(first + i, changed.get(i));
+        }
+        if (changed.size() > common) {
+            elements.addAll(first + common, changed.subList(common, changed.size()));
+        } else {
+            elements.subList(first + common, next).clear();
+        }
+        cursor = first;
+        cursorStart = start;
+        cursorLine = line;
+
+        for (int i = first; i < first + changed.size(); i++) {
+            elements.get(i).parse(line, i == 0);
+            line += elements.get(i).newlines;
+        }
+    }
+
+    public void prog() {
+        SymbolTable symbols = new SymbolTable();
+        CodeGenerator program = new CodeGenerator();
+        int next = program.newLabel();
+        int line = 1;
+        for (int i = 0; i < elements.size(); i++) {
+            Element element = elements.get(i);
+            if (element.failure instanceof SyntaxError && element.parsedLine != line) {
+                element.parse(line, i == 0); // error messages carry the line
+            }
+
+            int[] addresses = new int[element.table.size()];
+            for (int address = 0; address < addresses.length; address++) {
+                String symbol = element.table.getSymbol(address);
+                if (element.table.isLookedUp(address)) {
+                    addresses[address] = symbols.lookup(symbol);
+                } else {
+                    addresses[address] = symbols.lookupOrInsert(symbol);
+                }
+            }
+            if (element.failure != null) {
+                throw element.failure;
+            }
+            program.append(element.code, addresses);
+            line += element.newlines;
+        }
+        program.emit(OpCode.GOTO, next);
+        program.emitLabel(next);
+        if (Translator.OPTIMIZE) {
+            program.optimize();
+        }
+        code = program;
+    }
+
+    public void toJasmin() throws IOException {
+        code.toJasmin();
+    }
+
+    public void toJasmin(String path) throws IOException {
+        code.toJasmin(path);
+    }
+
+    public void toClass(String path) throws IOException {
+        code.toClass(path);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Instruction selection over the instructions of a CodeGenerator, the
+ * last of the optimization passes, as the ones before it only know LDC
+ * for constants. It
+ *
+ *      - pushes a constant with iconst_<n> for -1 to 5, bipush for a
+ *        byte, sipush for a short and ldc only for the rest
+ *      - turns iload x; <c>; iadd; istore x, <c>; iload x; iadd;
+ *        istore x and iload x; <c>; isub; istore x into iinc x by c or
+ *        by -c, as long as that fits in 16 bits
+ *
+ * The short forms iload_<n> and istore_<n> of the first four addresses
+ * are left to Instruction.toJasmin and ClassFile, which spell them out.
+ *
+ * ClassFile writes an iinc in 3 bytes whenever the address and the
+ * increment fit in a byte, but Jasmin writes it as the 6-byte wide form
+ * for any increment other than 127. So toJasmin() writes each iinc that
+ * Jasmin would not make shorter as the four instructions it replaced.
+ */
+public final class InstructionSelector {
+
+    private InstructionSelector() {
+    }
+
+    public static void select(CodeGenerator code) {
+        int[] instructions = new int[2 * code.size()];
+        int size = 0;
+        for (int i = 0; i < code.size(); i++) {
+            int increment = increment(code, i);
+            if (increment != 0) {
+                instructions[2 * size] = OpCode.IINC.ordinal();
+                instructions[2 * size + 1] = Instruction.iinc(code.operand(i + 3), increment);
+                size++;
+                i += 3;
+                continue;
+            }
+
+            OpCode opCode = code.opCode(i);
+            int operand = code.operand(i);
+            if (opCode == OpCode.LDC) {
+                opCode = constant(operand);
+            }
+            instructions[2 * size] = opCode.ordinal();
+            instructions[2 * size + 1] = operand;
+            size++;
+        }
+        code.replace(instructions, size, code.labels());
+    }
+
+    // whether Jasmin would write the iinc of operand in as many bytes as the instructions it replaced, or more
+    static boolean spelledOut(int operand) {
+        return jasminIincBytes(operand) >= spelledOutBytes(operand);
+    }
+
+    // appends the iinc of operand in Jasmin syntax to code, as iload x; <c>; iadd; istore x if it is spelled out
+    static void toJasmin(int operand, StringBuilder code) {
+        if (!spelledOut(operand)) {
+            Instruction.toJasmin(OpCode.IINC, operand, code);
+            return;
+        }
+        int address = Instruction.iincAddress(operand);
+        int increment = Instruction.iincIncrement(operand);
+        Instruction.toJasmin(OpCode.ILOAD, address, code);
+        Instruction.toJasmin(constant(increment), increment, code);
+        Instruction.toJasmin(OpCode.IADD, -1, code);
+        Instruction.toJasmin(OpCode.ISTORE, address, code);
+    }
+
+    private static int jasminIincBytes(int operand) {
+        return (Instruction.iincIncrement(operand) == 127 && Instruction.iincAddress(operand) <= 255) ? 3 : 6;
+    }
+
+    // bytes of iload x; <increment>; iadd; istore x
+    private static int spelledOutBytes(int operand) {
+        int address = Instruction.iincAddress(operand);
+        int local = (address <= 3) ? 1 : (address <= 255) ? 2 : 4;
+        switch (constant(Instruction.iincIncrement(operand))) {
+            case ICONST: return 2 * local + 2;
+            case BIPUSH: return 2 * local + 3;
+            default:     return 2 * local + 4;
+        }
+    }
+
+    // the instruction pushing value
+    static OpCode constant(int value) {
+        if (value >= -1 && value <= 5) {
+            return OpCode.ICONST;
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return OpCode.BIPUSH;
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return OpCode.SIPUSH;
+        } else {
+            return OpCode.LDC;
+        }
+    }
+
+    // what the four instructions from i on add to a local as an iinc would, 0 if they are not one
+    private static int increment(CodeGenerator code, int i) {
+        if (i + 3 >= code.size() || code.opCode(i + 3) != OpCode.ISTORE) {
+            return 0;
+        }
+        int address = code.operand(i + 3);
+        long increment;
+        if (code.opCode(i) == OpCode.ILOAD && code.operand(i) == address && code.opCode(i + 1) == OpCode.LDC) {
+            if (code.opCode(i + 2) == OpCode.IADD) {
+                increment = code.operand(i + 1);
+            } else if (code.opCode(i + 2) == OpCode.ISUB) {
+                increment = -(long) code.operand(i + 1);
+            } else {
+                return 0;
+            }
+        } else if (code.opCode(i) == OpCode.LDC && code.opCode(i + 1) == OpCode.ILOAD && code.operand(i + 1) == address
+                && code.opCode(i + 2) == OpCode.IADD) {
+            increment = code.operand(i);
+        } else {
+            return 0;
+        }
+        return (increment >= Short.MIN_VALUE && increment <= Short.MAX_VALUE) ? (int) increment : 0;
+    }
+
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+/*
+ * Control-flow peephole pass over the instructions of a CodeGenerator.
+ *
+ * The SDT ends almost every <stat> with a goto to a label of its own
+ * placed right after it, and nests those labels, so the code is full of
+ * jumps to the next instruction and of chains like goto L3; L3: goto L7.
+ * Until nothing changes, the pass
+ *
+ *      - retargets every branch to the end of the chain of gotos it lands on
+ *      - turns a conditional branch over a goto into the opposite branch
+ *      - deletes gotos to a label that follows them, past other labels only
+ *      - deletes instructions that follow a goto before any used label
+ *      - drops labels no branch refers to
+ *
+ * and then numbers the labels left from 0, in the order they appear.
+ */
+public final class JumpOptimizer {
+
+    private final OpCode[] ops;
+    private final int[] operands;
+    private final int labels;
+    private int size;
+
+    private JumpOptimizer(CodeGenerator code) {
+        size = code.size();
+        ops = new OpCode[size];
+        operands = new int[size];
+        int labels = 0;
+        for (int i = 0; i < size; i++) {
+            ops[i] = code.opCode(i);
+            operands[i] = code.operand(i);
+            if (ops[i] == OpCode.LABEL || Instruction.isBranch(ops[i])) {
+                labels = Math.max(labels, operands[i] + 1);
+            }
+        }
+        this.labels = labels;
+    }
+
+    public static void optimize(CodeGenerator code) {
+        JumpOptimizer optimizer = new JumpOptimizer(code);
+        boolean changed = true;
+        while (changed) {
+            changed = optimizer.thread();
+            changed |= optimizer.invert();
+            changed |= optimizer.sweep();
+        }
+        optimizer.renumber(code);
+    }
+
+    // the comparison branching exactly when the given one does not, null if OpCode has none
+    static OpCode negate(OpCode opCode) {
+        switch (opCode) {
+            case IF_ICMPEQ: return OpCode.IF_ICMPNE;
+            case IF_ICMPNE: return OpCode.IF_ICMPEQ;
+            case IF_ICMPLT: return OpCode.IF_ICMPGE;
+            case IF_ICMPGE: return OpCode.IF_ICMPLT;
+            case IF_ICMPGT: return OpCode.IF_ICMPLE;
+            case IF_ICMPLE: return OpCode.IF_ICMPGT;
+            default:        return null;
+        }
+    }
+
+    // index of the first instruction from i on that is not a label, instructions removed (null) skipped too
+    private int skipLabels(int i) {
+        while (i < size && (ops[i] == OpCode.LABEL || ops[i] == null)) {
+            i++;
+        }
+        return i;
+    }
+
+    // whether label is among the labels right after instruction i
+    private boolean follows(int i, int label) {
+        for (int j = i + 1; j < size && (ops[j] == OpCode.LABEL || ops[j] == null); j++) {
+            if (ops[j] == OpCode.LABEL && operands[j] == label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean thread() {
+        int[] at = new int[labels];
+        Arrays.fill(at, -1);
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == OpCode.LABEL) {
+                at[operands[i]] = i;
+            }
+        }
+
+        // where a jump to each label ends up, following the gotos it lands on
+        int[] resolved = new int[labels];
+        Arrays.fill(resolved, -1);
+        boolean[] visiting = new boolean[labels];
+        int[] path = new int[labels];
+        for (int label = 0; label < labels; label++) {
+            int length = 0;
+            int current = label;
+            int end;
+            while (true) {
+                if (resolved[current] >= 0) {
+                    end = resolved[current];
+                    break;
+                } else if (visiting[current] || at[current] < 0) {
+                    end = current; // a loop of gotos never gets anywhere else
+                    break;
+                }
+                visiting[current] = true;
+                path[length++] = current;
+                int next = skipLabels(at[current]);
+                if (next == size || ops[next] != OpCode.GOTO) {
+                    end = current;
+                    break;
+                }
+                current = operands[next];
+            }
+            for (int k = 0; k < length; k++) {
+                resolved[path[k]] = end;
+                visiting[path[k]] = false;
+            }
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != null && Instruction.isBranch(ops[i]) && resolved[operands[i]] != operands[i]) {
+                operands[i] = resolved[operands[i]];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // if_icmp<c> L1; goto L2; L1: becomes if_icmp<!c> L2; L1:, the goto being left to sweep as null
+    private boolean invert() {
+        boolean changed = false;
+        for (int i = 0; i + 1 < size; i++) {
+            OpCode negated = (ops[i] == null) ? null : negate(ops[i]);
+            if (negated != null && ops[i + 1] == OpCode.GOTO && follows(i + 1, operands[i])) {
+                ops[i] = negated;
+                operands[i] = operands[i + 1];
+                ops[i + 1] = null;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean sweep() {
+        int[] references = new int[labels];
+        for (int i = 0; i < size; i++) {
+            if (ops[i] != null && Instruction.isBranch(ops[i])) {
+                references[operands[i]]++;
+            }
+        }
+
+        boolean changed = false;
+        boolean reachable = true;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            OpCode opCode = ops[i];
+            int operand = operands[i];
+            boolean keep;
+            if (opCode == null) {
+                keep = false;
+            } else if (opCode == OpCode.LABEL) {
+                keep = references[operand] > 0;
+                reachable |= keep;
+            } else if (!reachable) {
+                keep = false;
+            } else if (opCode == OpCode.GOTO) {
+                keep = !follows(i, operand);
+                reachable = !keep;
+            } else {
+                keep = true;
+            }
+
+            if (keep) {
+                ops[kept] = opCode;
+                operands[kept] = operand;
+                kept++;
+            } else {
+                changed = true;
+            }
+        }
+        size = kept;
+        return changed;
+    }
+
+    private void renumber(CodeGenerator code) {
+        int[] numbers = new int[labels];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == OpCode.LABEL) {
+                numbers[operands[i]] = count++;
+            }
+        }
+
+        int[] instructions = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            instructions[2 * i] = ops[i].ordinal();
+            instructions[2 * i + 1] = (ops[i] == OpCode.LABEL || Instruction.isBranch(ops[i])) ? numbers[operands[i]] : operands[i];
+        }
+        code.replace(instructions, size, count);
+    }
+
+}
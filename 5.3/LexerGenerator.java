@@ -0,0 +1,678 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Scanner generator: reads a token specification and writes a table-driven
+ * lexer, built like the automata of the Esercizio_1_x classes but derived
+ * from regular expressions (Thompson NFA, subset construction and Moore
+ * minimization over character equivalence classes).
+ *
+ * Every non-blank line of the specification, other than # comments, is
+ *
+ *      skip    <name> <regex> [nolines]
+ *      token   <name> <regex> <expression building the Token from text>
+ *      error   <name> <regex> <message>
+ *      keyword <lexeme> <expression>
+ *
+ * A skip rule marked nolines leaves the newlines it matches out of the
+ * line count, as Lexer does for multi-line comments.
+ * The longest match wins, ties going to the rule declared first. Keywords
+ * take precedence over the token rule that matches their lexeme.
+ * Regexes support literals, \ escapes, [] classes with ranges and ^, the
+ * . wildcard, grouping, |, *, + and ?; they end at the first blank that
+ * is not inside a class.
+ *
+ * Usage: java LexerGenerator <spec> <class name>
+ */
+public final class LexerGenerator {
+
+    // input symbols: ASCII characters, then anything else, then EOF
+    private static final int NON_ASCII = 128;
+    private static final int EOF = 129;
+    private static final int ALPHABET = 130;
+
+    private static final String SKIP = "skip";
+    private static final String TOKEN = "token";
+    private static final String ERROR = "error";
+    private static final String KEYWORD = "keyword";
+    private static final String NOLINES = "nolines";
+
+    private static final class Rule {
+
+        private final String kind;
+        private final String name;
+        private final String regex;
+        private final String action;
+        private final Map<String, String> keywords = new LinkedHashMap<>();
+
+        private Rule(String kind, String name, String regex, String action) {
+            this.kind = kind;
+            this.name = name;
+            this.regex = regex;
+            this.action = action;
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final Map<String, String> keywords = new LinkedHashMap<>();
+
+    // Thompson NFA: each state has at most one labelled edge plus any number of epsilon edges
+    private final List<BitSet> labels = new ArrayList<>();
+    private final List<Integer> targets = new ArrayList<>();
+    private final List<List<Integer>> epsilon = new ArrayList<>();
+    private final List<Integer> accepts = new ArrayList<>();
+
+    // equivalence classes, by symbol, and a representative symbol for each class
+    private int[] classOf;
+    private int[] representative;
+
+    // minimized DFA, state 0 being the start state
+    private int[][] next;
+    private int[] accept;
+
+    /* ---------------------------------- specification ---------------------------------- */
+
+    private void parseSpec(List<String> lines) {
+        for (int n = 0; n < lines.size(); n++) {
+            String line = lines.get(n).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] head = line.split("\\s+", 3);
+            if (head.length < 3) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": missing fields");
+            }
+            if (head[0].equals(KEYWORD)) {
+                keywords.put(head[1], head[2].trim());
+                continue;
+            }
+            if (!head[0].equals(SKIP) && !head[0].equals(TOKEN) && !head[0].equals(ERROR)) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": unknown rule kind " + head[0]);
+            }
+
+            String rest = head[2];
+            int end = regexEnd(rest);
+            String action = rest.substring(end).trim();
+            if (!head[0].equals(SKIP) && action.isEmpty()) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": missing action for " + head[1]);
+            } else if (head[0].equals(SKIP) && !action.isEmpty() && !action.equals(NOLINES)) {
+                throw new IllegalArgumentException("line " + (n + 1) + ": unknown option " + action + " for " + head[1]);
+            }
+            rules.add(new Rule(head[0], head[1], rest.substring(0, end), action));
+        }
+    }
+
+    private static int regexEnd(String s) {
+        boolean inClass = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (!inClass && Character.isWhitespace(c)) {
+                return i;
+            }
+        }
+        return s.length();
+    }
+
+    /* --------------------------------------- NFA --------------------------------------- */
+
+    private int newState() {
+        labels.add(null);
+        targets.add(-1);
+        epsilon.add(new ArrayList<>());
+        accepts.add(-1);
+        return labels.size() - 1;
+    }
+
+    private void link(int from, int to) {
+        epsilon.get(from).add(to);
+    }
+
+    // a fragment of the NFA, with a single entry and a single exit state
+    private static final class Fragment {
+
+        private final int start;
+        private final int end;
+
+        private Fragment(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final class RegexParser {
+
+        private final String regex;
+        private int pos = 0;
+
+        private RegexParser(String regex) {
+            this.regex = regex;
+        }
+
+        private IllegalArgumentException error(String msg) {
+            return new IllegalArgumentException("regex " + regex + " at " + pos + ": " + msg);
+        }
+
+        private boolean more() {
+            return pos < regex.length();
+        }
+
+        private char peek() {
+            return regex.charAt(pos);
+        }
+
+        private Fragment parse() {
+            Fragment fragment = alternation();
+            if (more()) {
+                throw error("unexpected '" + peek() + "'");
+            }
+            return fragment;
+        }
+
+        private Fragment alternation() {
+            Fragment left = concatenation();
+            while (more() && peek() == '|') {
+                pos++;
+                Fragment right = concatenation();
+                int start = newState();
+                int end = newState();
+                link(start, left.start);
+                link(start, right.start);
+                link(left.end, end);
+                link(right.end, end);
+                left = new Fragment(start, end);
+            }
+            return left;
+        }
+
+        private Fragment concatenation() {
+            int start = newState();
+            Fragment result = new Fragment(start, start);
+            while (more() && peek() != '|' && peek() != ')') {
+                Fragment fragment = repetition();
+                link(result.end, fragment.start);
+                result = new Fragment(result.start, fragment.end);
+            }
+            return result;
+        }
+
+        private Fragment repetition() {
+            Fragment fragment = atom();
+            while (more() && (peek() == '*' || peek() == '+' || peek() == '?')) {
+                char op = regex.charAt(pos++);
+                int start = newState();
+                int end = newState();
+                link(start, fragment.start);
+                link(fragment.end, end);
+                if (op != '+') {
+                    link(start, end);
+                }
+                if (op != '?') {
+                    link(fragment.end, fragment.start);
+                }
+                fragment = new Fragment(start, end);
+            }
+            return fragment;
+        }
+
+        private Fragment atom() {
+            char c = regex.charAt(pos++);
+            BitSet set = new BitSet(ALPHABET);
+            switch (c) {
+                case '(': {
+                    Fragment fragment = alternation();
+                    if (!more() || peek() != ')') {
+                        throw error("missing ')'");
+                    }
+                    pos++;
+                    return fragment;
+                }
+                case '[':
+                    set = charClass();
+                    break;
+                case '.':
+                    set.set(0, EOF);
+                    set.clear('\n');
+                    break;
+                case '\\':
+                    set.set(escape());
+                    break;
+                case '*':
+                case '+':
+                case '?':
+                case ')':
+                    throw error("unexpected '" + c + "'");
+                default:
+                    set.set(symbol(c));
+            }
+            int start = newState();
+            int end = newState();
+            labels.set(start, set);
+            targets.set(start, end);
+            return new Fragment(start, end);
+        }
+
+        private BitSet charClass() {
+            BitSet set = new BitSet(ALPHABET);
+            boolean negated = more() && peek() == '^';
+            if (negated) {
+                pos++;
+            }
+            while (more() && peek() != ']') {
+                int lower = classChar();
+                if (pos + 1 < regex.length() && peek() == '-' && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    int upper = classChar();
+                    set.set(lower, upper + 1);
+                } else {
+                    set.set(lower);
+                }
+            }
+            if (!more()) {
+                throw error("missing ']'");
+            }
+            pos++;
+            if (negated) {
+                set.flip(0, EOF);
+            }
+            return set;
+        }
+
+        private int classChar() {
+            char c = regex.charAt(pos++);
+            return (c == '\\') ? escape() : symbol(c);
+        }
+
+        private int escape() {
+            if (!more()) {
+                throw error("dangling '\\'");
+            }
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case 't': return '\t';
+                case 'n': return '\n';
+                case 'r': return '\r';
+                default:  return symbol(c);
+            }
+        }
+
+        private int symbol(char c) {
+            return (c < NON_ASCII) ? c : NON_ASCII;
+        }
+    }
+
+    private void buildNfa() {
+        int start = newState();
+        for (int i = 0; i < rules.size(); i++) {
+            Fragment fragment = new RegexParser(rules.get(i).regex).parse();
+            link(start, fragment.start);
+            accepts.set(fragment.end, i);
+        }
+    }
+
+    /* ------------------------------- equivalence classes ------------------------------- */
+
+    private void buildClasses() {
+        Map<BitSet, Integer> signatures = new LinkedHashMap<>();
+        List<Integer> representatives = new ArrayList<>();
+        classOf = new int[ALPHABET];
+        for (int symbol = 0; symbol < ALPHABET; symbol++) {
+            BitSet signature = new BitSet();
+            for (int s = 0; s < labels.size(); s++) {
+                if (labels.get(s) != null && labels.get(s).get(symbol)) {
+                    signature.set(s);
+                }
+            }
+            Integer cls = signatures.get(signature);
+            if (cls == null) {
+                cls = signatures.size();
+                signatures.put(signature, cls);
+                representatives.add(symbol);
+            }
+            classOf[symbol] = cls;
+        }
+        representative = representatives.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /* --------------------------------------- DFA --------------------------------------- */
+
+    private BitSet closure(BitSet states) {
+        BitSet result = (BitSet) states.clone();
+        Deque<Integer> work = new ArrayDeque<>();
+        states.stream().forEach(work::push);
+        while (!work.isEmpty()) {
+            for (int t : epsilon.get(work.pop())) {
+                if (!result.get(t)) {
+                    result.set(t);
+                    work.push(t);
+                }
+            }
+        }
+        return result;
+    }
+
+    private int acceptOf(BitSet states) {
+        int rule = -1;
+        for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1)) {
+            if (accepts.get(s) >= 0 && (rule < 0 || accepts.get(s) < rule)) {
+                rule = accepts.get(s);
+            }
+        }
+        return rule;
+    }
+
+    private void buildDfa() {
+        int classes = representative.length;
+        Map<BitSet, Integer> ids = new HashMap<>();
+        List<BitSet> states = new ArrayList<>();
+        List<int[]> moves = new ArrayList<>();
+
+        BitSet initial = new BitSet();
+        initial.set(0);
+        initial = closure(initial);
+        ids.put(initial, 0);
+        states.add(initial);
+
+        for (int i = 0; i < states.size(); i++) {
+            int[] row = new int[classes];
+            for (int cls = 0; cls < classes; cls++) {
+                BitSet move = new BitSet();
+                BitSet from = states.get(i);
+                for (int s = from.nextSetBit(0); s >= 0; s = from.nextSetBit(s + 1)) {
+                    if (labels.get(s) != null && labels.get(s).get(representative[cls])) {
+                        move.set(targets.get(s));
+                    }
+                }
+                if (move.isEmpty()) {
+                    row[cls] = -1;
+                    continue;
+                }
+                move = closure(move);
+                Integer id = ids.get(move);
+                if (id == null) {
+                    id = states.size();
+                    ids.put(move, id);
+                    states.add(move);
+                }
+                row[cls] = id;
+            }
+            moves.add(row);
+        }
+
+        int[] acceptOf = new int[states.size()];
+        for (int i = 0; i < states.size(); i++) {
+            acceptOf[i] = acceptOf(states.get(i));
+        }
+        minimize(moves.toArray(new int[0][]), acceptOf);
+    }
+
+    // Moore's algorithm: split blocks until states in a block agree on every transition
+    private void minimize(int[][] moves, int[] acceptOf) {
+        int n = moves.length;
+        int[] block = acceptOf.clone();
+        int blocks = -1;
+        while (true) {
+            Map<List<Integer>, Integer> signatures = new LinkedHashMap<>();
+            int[] refined = new int[n];
+            for (int s = 0; s < n; s++) {
+                List<Integer> signature = new ArrayList<>();
+                signature.add(block[s]);
+                for (int t : moves[s]) {
+                    signature.add(t < 0 ? -1 : block[t]);
+                }
+                Integer id = signatures.get(signature);
+                if (id == null) {
+                    id = signatures.size();
+                    signatures.put(signature, id);
+                }
+                refined[s] = id;
+            }
+            block = refined;
+            if (signatures.size() == blocks) {
+                break;
+            }
+            blocks = signatures.size();
+        }
+
+        // the start state is the first one seen, hence block 0
+        next = new int[blocks][];
+        accept = new int[blocks];
+        for (int s = 0; s < n; s++) {
+            int b = block[s];
+            if (next[b] == null) {
+                next[b] = new int[moves[s].length];
+                for (int cls = 0; cls < moves[s].length; cls++) {
+                    next[b][cls] = (moves[s][cls] < 0) ? -1 : block[moves[s][cls]];
+                }
+                accept[b] = acceptOf[s];
+            }
+        }
+    }
+
+    private int match(String text) {
+        int state = 0;
+        for (int i = 0; i < text.length() && state >= 0; i++) {
+            char c = text.charAt(i);
+            state = next[state][classOf[c < NON_ASCII ? c : NON_ASCII]];
+        }
+        return (state < 0) ? -1 : accept[state];
+    }
+
+    private void assignKeywords() {
+        for (Map.Entry<String, String> keyword : keywords.entrySet()) {
+            int rule = match(keyword.getKey());
+            if (rule < 0 || !rules.get(rule).kind.equals(TOKEN)) {
+                throw new IllegalArgumentException("keyword " + keyword.getKey() + " is not matched by any token rule");
+            }
+            rules.get(rule).keywords.put(keyword.getKey(), keyword.getValue());
+        }
+    }
+
+    /* -------------------------------------- output -------------------------------------- */
+
+    private static String literal(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void table(StringBuilder sb, String type, String name, int[] values, int perLine) {
+        sb.append("    private static final ").append(type).append("[] ").append(name).append(" = {");
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i % perLine == 0 ? "\n            " : " ");
+            sb.append(values[i]);
+            if (i < values.length - 1) {
+                sb.append(',');
+            }
+        }
+        sb.append("\n    };\n\n");
+    }
+
+    private String emit(String className, String specName) {
+        int classes = representative.length;
+        int[] asciiClasses = Arrays.copyOf(classOf, NON_ASCII);
+        int[] flat = new int[next.length * classes];
+        for (int s = 0; s < next.length; s++) {
+            System.arraycopy(next[s], 0, flat, s * classes, classes);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("// Generated by LexerGenerator from ").append(specName).append(", do not edit.\n\n");
+        sb.append("import java.io.*;\n");
+        sb.append("import java.util.Arrays;\n\n");
+        sb.append("public final class ").append(className).append(" {\n\n");
+        sb.append("    private static final char EOF = Source.EOF;\n\n");
+        sb.append("    private static final int CLASSES = ").append(classes).append(";\n");
+        sb.append("    private static final int NON_ASCII = ").append(classOf[NON_ASCII]).append(";\n");
+        sb.append("    private static final int END_OF_FILE = ").append(classOf[EOF]).append(";\n\n");
+        sb.append("    // equivalence class of each ASCII character\n");
+        table(sb, "byte", "CLASS", asciiClasses, 16);
+        sb.append("    // NEXT[state * CLASSES + class] is the next state, -1 if there is none\n");
+        table(sb, "short", "NEXT", flat, classes);
+        sb.append("    // rule accepted in each state, -1 if the state is not accepting\n");
+        table(sb, "byte", "ACCEPT", accept, 16);
+
+        sb.append("    // chars[start, avail) is input read but not consumed yet, pos the next character to match\n");
+        sb.append("    private char[] chars = new char[4096];\n");
+        sb.append("    private int start = 0;\n");
+        sb.append("    private int pos = 0;\n");
+        sb.append("    private int avail = 0;\n");
+        sb.append("    private int line = 1;\n\n");
+
+        sb.append("    private static int classOf(char c) {\n");
+        sb.append("        if (c < CLASS.length) {\n");
+        sb.append("            return CLASS[c];\n");
+        sb.append("        }\n");
+        sb.append("        return (c == EOF) ? END_OF_FILE : NON_ASCII;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    // characters read past the last match are kept in chars and read again first\n");
+        sb.append("    private char read(Source src) {\n");
+        sb.append("        if (pos < avail) {\n");
+        sb.append("            return chars[pos++];\n");
+        sb.append("        }\n");
+        sb.append("        if (avail == chars.length) {\n");
+        sb.append("            if (start > 0) {\n");
+        sb.append("                System.arraycopy(chars, start, chars, 0, avail - start);\n");
+        sb.append("                avail -= start;\n");
+        sb.append("                pos -= start;\n");
+        sb.append("                start = 0;\n");
+        sb.append("            } else {\n");
+        sb.append("                chars = Arrays.copyOf(chars, avail * 2);\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        chars[avail++] = src.next();\n");
+        sb.append("        return chars[pos++];\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private void consume(int length) {\n");
+        sb.append("        for (int i = start; i < start + length; i++) {\n");
+        sb.append("            if (chars[i] == '\\n') {\n");
+        sb.append("                line++;\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("        start += length;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public Token scan(Source src) {\n");
+        sb.append("        while (true) {\n");
+        sb.append("            pos = start;\n");
+        sb.append("            char c = read(src);\n");
+        sb.append("            if (c == EOF) {\n");
+        sb.append("                pos = start;\n");
+        sb.append("                return new Token(Tag.EOF);\n");
+        sb.append("            }\n\n");
+        sb.append("            int state = 0;\n");
+        sb.append("            int rule = -1;\n");
+        sb.append("            int length = 0;\n");
+        sb.append("            while (true) {\n");
+        sb.append("                state = NEXT[state * CLASSES + classOf(c)];\n");
+        sb.append("                if (state < 0) {\n");
+        sb.append("                    break;\n");
+        sb.append("                }\n");
+        sb.append("                if (ACCEPT[state] >= 0) {\n");
+        sb.append("                    rule = ACCEPT[state];\n");
+        sb.append("                    length = pos - start;\n");
+        sb.append("                }\n");
+        sb.append("                c = read(src);\n");
+        sb.append("            }\n\n");
+        sb.append("            if (rule < 0) {\n");
+        sb.append("                throw new SyntaxError(\"erroneous character '\" + chars[start] + \"'\");\n");
+        sb.append("            }\n");
+
+        sb.append("            switch (rule) {\n");
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            sb.append("                case ").append(i).append(": { // ").append(rule.name).append('\n');
+            switch (rule.kind) {
+                case SKIP:
+                    if (rule.action.equals(NOLINES)) {
+                        sb.append("                    start += length;\n");
+                    } else {
+                        sb.append("                    consume(length);\n");
+                    }
+                    sb.append("                    continue;\n");
+                    break;
+                case ERROR:
+                    sb.append("                    throw new SyntaxError(").append(literal(rule.action)).append(");\n");
+                    break;
+                default:
+                    if (rule.keywords.isEmpty() && !rule.action.contains("text")) {
+                        sb.append("                    consume(length);\n");
+                    } else {
+                        sb.append("                    String text = new String(chars, start, length);\n");
+                        sb.append("                    consume(length);\n");
+                    }
+                    if (!rule.keywords.isEmpty()) {
+                        sb.append("                    switch (text) {\n");
+                        for (Map.Entry<String, String> keyword : rule.keywords.entrySet()) {
+                            sb.append("                        case ").append(literal(keyword.getKey()))
+                                    .append(": return ").append(keyword.getValue()).append(";\n");
+                        }
+                        sb.append("                    }\n");
+                    }
+                    sb.append("                    return ").append(rule.action).append(";\n");
+            }
+            sb.append("                }\n");
+        }
+        sb.append("                default:\n");
+        sb.append("                    throw new IllegalStateException(\"unknown rule \" + rule);\n");
+        sb.append("            }\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public int getLine() {\n");
+        sb.append("        return line;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public static void main(String[] args) {\n");
+        sb.append("        ").append(className).append(" lex = new ").append(className).append("();\n");
+        sb.append("        try {\n");
+        sb.append("            Source src = Source.open(args[0]);\n");
+        sb.append("            Token tok;\n");
+        sb.append("            do {\n");
+        sb.append("                tok = lex.scan(src);\n");
+        sb.append("                System.out.println(\"Scan: \" + tok);\n");
+        sb.append("            } while (tok.tag != Tag.EOF);\n");
+        sb.append("            src.close();\n");
+        sb.append("        } catch (SyntaxError e) {\n");
+        sb.append("            System.err.println(e.getMessage());\n");
+        sb.append("        } catch (IOException e) {\n");
+        sb.append("            e.printStackTrace();\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: java LexerGenerator <spec> <class name>");
+            return;
+        }
+        try {
+            LexerGenerator generator = new LexerGenerator();
+            generator.parseSpec(Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8));
+            generator.buildNfa();
+            generator.buildClasses();
+            generator.buildDfa();
+            generator.assignKeywords();
+
+            String code = generator.emit(args[1], Paths.get(args[0]).getFileName().toString());
+            Files.write(Paths.get(args[1] + ".java"), code.getBytes(StandardCharsets.UTF_8));
+            System.out.println(args[1] + ".java: " + generator.next.length + " states, "
+                    + generator.representative.length + " character classes");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,483 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+ * Loop-invariant code motion over the natural loops of the
+ * ControlFlowGraph of the instructions of a CodeGenerator.
+ *
+ * A for loop evaluates its condition and its body again on every
+ * iteration, even the expressions whose variables the loop never stores.
+ * Going through the loops from the outer ones in, the pass finds the
+ * largest such expressions with at least an operator in them, made of
+ * ldc, iload of a variable the loop does not store and the arithmetic
+ * operators, and moves each to a preheader: code of its own placed
+ * right before the label of the header, which computes the expression
+ * once and stores it in a new variable, loaded where the expression was.
+ * Branches into the header from outside the loop go to the preheader,
+ * and a block of the loop falling through to the header jumps over it.
+ *
+ * The preheader runs even when the loop does not, so a division or a
+ * remainder, which may throw, is only moved when it cannot, by a constant
+ * other than 0, or when the header computes it before anything else with
+ * effects, as the header runs right after the preheader anyway.
+ *
+ * Before that, the pass reduces the induction variables of each loop,
+ * the ones it only stores as i := i + c or i := i - c with c a constant.
+ * A product of one by a constant k, recomputed on every iteration, is
+ * instead kept in a variable of its own: the preheader sets it to i * k
+ * and each store of i adds c * k to it, so that it always holds i * k,
+ * as int overflow wraps both the same way.
+ *
+ * Each expression moved and each product kept takes a new variable, so
+ * past MAX_VARIABLES of them, or the 65535 locals a method can have, the
+ * rest are left in their loops. Code with no branch back to a label has
+ * no loops and is left as it is before any graph is built.
+ */
+public final class LoopOptimizer {
+
+    private static final int INVARIANT = 1;
+    private static final int COMPUTED = 2; // more than an iload or ldc
+
+    private static final int MAX_VARIABLES = 1 << 8;
+    private static final int MAX_LOCALS = 0xFFFF;
+
+    private static final long NONE = Long.MIN_VALUE; // no increment, as an int always is one
+
+    private final OpCode[] ops;
+    private final int[] operands;
+    private final int labels;
+    private final int size;
+    private int locals;
+    private final int limit; // locals can go up to
+
+    private ControlFlowGraph graph;
+
+    // code moved ahead of each header, packed as in CodeGenerator, null if nothing was
+    private int[][] hoisted;
+    private int[] hoistedSize;
+
+    // code keeping reduced induction variables up to date, right after the store of each instruction
+    private int[][] updates;
+    private int[] updateSize;
+
+    // the values on the stack of the block being scanned: the instructions computing each and what they are
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] flags = new int[16];
+    private int depth;
+
+    private LoopOptimizer(CodeGenerator code) {
+        size = code.size();
+        ops = new OpCode[size];
+        operands = new int[size];
+        int locals = 0;
+        for (int i = 0; i < size; i++) {
+            ops[i] = code.opCode(i);
+            operands[i] = code.operand(i);
+            if (ops[i] == OpCode.ILOAD || ops[i] == OpCode.ISTORE) {
+                locals = Math.max(locals, operands[i] + 1);
+            } else if (ops[i] == OpCode.IINC) {
+                locals = Math.max(locals, Instruction.iincAddress(operands[i]) + 1);
+            }
+        }
+        this.labels = code.labels();
+        this.locals = locals;
+        this.limit = Math.min(locals + MAX_VARIABLES, MAX_LOCALS);
+    }
+
+    public static void optimize(CodeGenerator code) {
+        LoopOptimizer optimizer = new LoopOptimizer(code);
+        if (!optimizer.branchesBack()) {
+            return;
+        }
+        optimizer.graph = new ControlFlowGraph(optimizer.ops, optimizer.operands, optimizer.size, optimizer.labels);
+        List<ControlFlowGraph.Loop> loops = optimizer.graph.loops();
+        optimizer.hoisted = new int[optimizer.graph.blocks()][];
+        optimizer.hoistedSize = new int[optimizer.graph.blocks()];
+        optimizer.updates = new int[optimizer.size][];
+        optimizer.updateSize = new int[optimizer.size];
+        boolean changed = false;
+        for (int k = loops.size() - 1; k >= 0; k--) {
+            changed |= optimizer.hoist(loops.get(k));
+        }
+        if (changed) {
+            optimizer.replace(code, loops);
+        }
+    }
+
+    // whether a branch goes to a label at or before it, as some branch of every loop does
+    private boolean branchesBack() {
+        boolean[] placed = new boolean[labels];
+        for (int i = 0; i < size; i++) {
+            if (ops[i] == OpCode.LABEL) {
+                placed[operands[i]] = true;
+            } else if (Instruction.isBranch(ops[i]) && placed[operands[i]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hoist(ControlFlowGraph.Loop loop) {
+        int header = loop.header();
+        if (ops[graph.start(header)] != OpCode.LABEL) {
+            return false; // cannot be, as a back edge is a branch to the header or falls through from a block before it
+        }
+        int[] blocks = loop.blocks();
+        BitSet stored = new BitSet();
+        BitSet copied = new BitSet(); // stored other than by adding a constant
+        for (int b : blocks) {
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                if (ops[i] == OpCode.ISTORE) {
+                    stored.set(operands[i]);
+                    if (increment(i, graph.start(b)) == NONE) {
+                        copied.set(operands[i]);
+                    }
+                } else if (ops[i] == OpCode.IINC) {
+                    stored.set(Instruction.iincAddress(operands[i]));
+                }
+                for (int k = 0; k < updateSize[i]; k++) {
+                    stored.set(updates[i][2 * k + 1]);
+                    copied.set(updates[i][2 * k + 1]); // left to the loop whose induction variable it follows
+                }
+            }
+        }
+        boolean changed = reduce(header, blocks, stored, copied);
+        for (int b : blocks) {
+            changed |= scan(b, header, stored);
+        }
+        return changed;
+    }
+
+    /*
+     * Replaces each iload i; ldc k; imul and ldc k; iload i; imul of the
+     * loop, i an induction variable, with the load of the variable holding
+     * i * k, returning whether there were any.
+     */
+    private boolean reduce(int header, int[] blocks, BitSet stored, BitSet copied) {
+        List<int[]> reduced = new ArrayList<>(); // induction variable, factor and variable holding their product
+        for (int b : blocks) {
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                if (ops[i] != OpCode.IMUL) {
+                    continue;
+                }
+                int second = previous(i, graph.start(b));
+                int first = (second < 0) ? -1 : previous(second, graph.start(b));
+                if (first < 0) {
+                    continue;
+                }
+                int load = (ops[first] == OpCode.ILOAD) ? first : second;
+                int constant = (load == first) ? second : first;
+                if (ops[load] != OpCode.ILOAD || ops[constant] != OpCode.LDC
+                        || !stored.get(operands[load]) || copied.get(operands[load])) {
+                    continue;
+                }
+                int variable = operands[load];
+                int factor = operands[constant];
+                if (factor >= -1 && factor <= 1) {
+                    continue; // left to StrengthReducer, which needs no variable for them
+                }
+                int product = -1;
+                for (int[] r : reduced) {
+                    if (r[0] == variable && r[1] == factor) {
+                        product = r[2];
+                    }
+                }
+                if (product < 0) {
+                    if (locals >= limit) {
+                        continue;
+                    }
+                    product = locals++;
+                    reduced.add(new int[] {variable, factor, product});
+                    append(hoisted, hoistedSize, header, OpCode.ILOAD, variable);
+                    append(hoisted, hoistedSize, header, OpCode.LDC, factor);
+                    append(hoisted, hoistedSize, header, OpCode.IMUL, -1);
+                    append(hoisted, hoistedSize, header, OpCode.ISTORE, product);
+                    stored.set(product);
+                    copied.set(product); // kept up to date by the updates, not by stores of the loop
+                }
+                ops[first] = OpCode.ILOAD;
+                operands[first] = product;
+                ops[second] = null;
+                ops[i] = null;
+            }
+        }
+        if (reduced.isEmpty()) {
+            return false;
+        }
+
+        for (int b : blocks) {
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                int variable;
+                long increment;
+                if (ops[i] == OpCode.ISTORE) {
+                    variable = operands[i];
+                    increment = increment(i, graph.start(b));
+                } else if (ops[i] == OpCode.IINC) {
+                    variable = Instruction.iincAddress(operands[i]);
+                    increment = Instruction.iincIncrement(operands[i]);
+                } else {
+                    continue;
+                }
+                for (int[] r : reduced) {
+                    if (r[0] == variable) {
+                        append(updates, updateSize, i, OpCode.ILOAD, r[2]);
+                        append(updates, updateSize, i, OpCode.LDC, (int) increment * r[1]);
+                        append(updates, updateSize, i, OpCode.IADD, -1);
+                        append(updates, updateSize, i, OpCode.ISTORE, r[2]);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // what the istore at i adds to its variable, NONE if it stores anything else
+    private long increment(int i, int start) {
+        int operator = previous(i, start);
+        int second = (operator < 0) ? -1 : previous(operator, start);
+        int first = (second < 0) ? -1 : previous(second, start);
+        if (first < 0 || (ops[operator] != OpCode.IADD && ops[operator] != OpCode.ISUB)) {
+            return NONE;
+        }
+        int variable = operands[i];
+        if (ops[first] == OpCode.ILOAD && operands[first] == variable && ops[second] == OpCode.LDC) {
+            return (ops[operator] == OpCode.IADD) ? operands[second] : -operands[second];
+        } else if (ops[operator] == OpCode.IADD
+                && ops[first] == OpCode.LDC && ops[second] == OpCode.ILOAD && operands[second] == variable) {
+            return operands[first];
+        }
+        return NONE;
+    }
+
+    // the instruction before i still there, from start on, -1 if there is none
+    private int previous(int i, int start) {
+        for (int j = i - 1; j >= start; j--) {
+            if (ops[j] != null) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    // moves the invariant expressions of block ahead of header, returning whether there were any
+    private boolean scan(int block, int header, BitSet stored) {
+        boolean changed = false;
+        boolean effects = false; // whether an instruction with effects was met
+        int end = graph.end(block);
+        depth = 0;
+        for (int i = graph.start(block); i < end; i++) {
+            if (ops[i] == null) {
+                continue;
+            }
+            switch (ops[i]) {
+                case LDC:
+                case ICONST:
+                case BIPUSH:
+                case SIPUSH:
+                    push(i, next(i, end), INVARIANT);
+                    break;
+                case ILOAD:
+                    push(i, next(i, end), stored.get(operands[i]) ? 0 : INVARIANT);
+                    break;
+                case INEG: {
+                    int operand = depth - 1;
+                    if (operand >= 0 && (flags[operand] & INVARIANT) != 0 && ends[operand] == i) {
+                        ends[operand] = next(i, end);
+                        flags[operand] |= COMPUTED;
+                    } else {
+                        changed |= pop(header);
+                        push(i, next(i, end), 0);
+                    }
+                    break;
+                }
+                case IMUL:
+                case IDIV:
+                case IREM:
+                case IADD:
+                case ISUB:
+                case IOR:
+                case IAND:
+                case IXOR:
+                case ISHL:
+                case ISHR:
+                case IUSHR: {
+                    int right = depth - 1;
+                    int left = depth - 2;
+                    boolean invariant = left >= 0
+                            && (flags[left] & flags[right] & INVARIANT) != 0
+                            && ends[left] == starts[right] && ends[right] == i;
+                    if (invariant && (ops[i] == OpCode.IDIV || ops[i] == OpCode.IREM)) {
+                        boolean constant = (flags[right] & COMPUTED) == 0 && ops[starts[right]] != OpCode.ILOAD;
+                        invariant = (constant && operands[starts[right]] != 0) || (block == header && !effects);
+                    }
+                    if (invariant) {
+                        depth--;
+                        ends[left] = next(i, end);
+                        flags[left] |= COMPUTED;
+                    } else {
+                        changed |= pop(header);
+                        changed |= pop(header);
+                        push(i, next(i, end), 0);
+                    }
+                    break;
+                }
+                case DUP:
+                    changed |= pop(header);
+                    push(i, i + 1, 0);
+                    push(i, i + 1, 0);
+                    break;
+                case INVOKESTATIC:
+                    effects = true;
+                    if (operands[i] == 1) {
+                        changed |= pop(header); // print
+                    } else {
+                        push(i, i + 1, 0); // read()
+                    }
+                    break;
+                case ISTORE:
+                case POP:
+                case IFNE:
+                    changed |= pop(header);
+                    break;
+                case IF_ICMPEQ:
+                case IF_ICMPLE:
+                case IF_ICMPLT:
+                case IF_ICMPNE:
+                case IF_ICMPGE:
+                case IF_ICMPGT:
+                    changed |= pop(header);
+                    changed |= pop(header);
+                    break;
+                default:
+                    break; // labels, iinc and goto
+            }
+        }
+        while (depth > 0) {
+            changed |= pop(header);
+        }
+        return changed;
+    }
+
+    // index of the first instruction after i that is still there, end if there is none before it
+    private int next(int i, int end) {
+        int j = i + 1;
+        while (j < end && ops[j] == null) {
+            j++;
+        }
+        return j;
+    }
+
+    private void push(int start, int end, int flag) {
+        if (depth == starts.length) {
+            starts = Arrays.copyOf(starts, 2 * depth);
+            ends = Arrays.copyOf(ends, 2 * depth);
+            flags = Arrays.copyOf(flags, 2 * depth);
+        }
+        starts[depth] = start;
+        ends[depth] = end;
+        flags[depth] = flag;
+        depth++;
+    }
+
+    // pops the value on top of the stack, moving it ahead of header if it is worth it, a value from before the block being unknown
+    private boolean pop(int header) {
+        if (depth == 0) {
+            return false;
+        }
+        depth--;
+        if (flags[depth] != (INVARIANT | COMPUTED) || locals >= limit) {
+            return false;
+        }
+        int start = starts[depth];
+        int end = ends[depth];
+        int variable = locals++;
+        for (int i = start; i < end; i++) {
+            if (ops[i] != null) {
+                append(hoisted, hoistedSize, header, ops[i], operands[i]);
+                ops[i] = null;
+            }
+        }
+        append(hoisted, hoistedSize, header, OpCode.ISTORE, variable);
+        ops[start] = OpCode.ILOAD;
+        operands[start] = variable;
+        return true;
+    }
+
+    // appends an instruction to the code at index of table, packed as in CodeGenerator
+    private static void append(int[][] table, int[] sizes, int index, OpCode opCode, int operand) {
+        int[] code = table[index];
+        if (code == null) {
+            code = table[index] = new int[2 * 8];
+        } else if (2 * sizes[index] == code.length) {
+            code = table[index] = Arrays.copyOf(code, 2 * code.length);
+        }
+        code[2 * sizes[index]] = opCode.ordinal();
+        code[2 * sizes[index] + 1] = operand;
+        sizes[index]++;
+    }
+
+    /*
+     * Writes the code again with the preheaders in, each after a goto to
+     * the header if the block before it is in the loop and falls through,
+     * and with the updates of the reduced induction variables.
+     */
+    private void replace(CodeGenerator code, List<ControlFlowGraph.Loop> loops) {
+        int blocks = graph.blocks();
+        ControlFlowGraph.Loop[] loopAt = new ControlFlowGraph.Loop[blocks];
+        int[] preheaders = new int[blocks];
+        int label = labels;
+        int extra = 0;
+        for (ControlFlowGraph.Loop loop : loops) {
+            int header = loop.header();
+            if (hoisted[header] != null) {
+                loopAt[header] = loop;
+                preheaders[header] = label++;
+                extra += hoistedSize[header] + 2;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            extra += updateSize[i];
+        }
+
+        int[] instructions = new int[2 * (size + extra)];
+        int kept = 0;
+        for (int b = 0; b < blocks; b++) {
+            if (loopAt[b] != null) {
+                if (b > 0 && loopAt[b].contains(b - 1) && ops[graph.end(b - 1) - 1] != OpCode.GOTO) {
+                    instructions[2 * kept] = OpCode.GOTO.ordinal();
+                    instructions[2 * kept + 1] = operands[graph.start(b)];
+                    kept++;
+                }
+                instructions[2 * kept] = OpCode.LABEL.ordinal();
+                instructions[2 * kept + 1] = preheaders[b];
+                kept++;
+                System.arraycopy(hoisted[b], 0, instructions, 2 * kept, 2 * hoistedSize[b]);
+                kept += hoistedSize[b];
+            }
+            for (int i = graph.start(b); i < graph.end(b); i++) {
+                if (ops[i] == null) {
+                    continue;
+                }
+                int operand = operands[i];
+                if (Instruction.isBranch(ops[i])) {
+                    int target = graph.blockOf(operand);
+                    if (loopAt[target] != null && !loopAt[target].contains(b)) {
+                        operand = preheaders[target];
+                    }
+                }
+                instructions[2 * kept] = ops[i].ordinal();
+                instructions[2 * kept + 1] = operand;
+                kept++;
+                if (updates[i] != null) {
+                    System.arraycopy(updates[i], 0, instructions, 2 * kept, 2 * updateSize[i]);
+                    kept += updateSize[i];
+                }
+            }
+        }
+        code.replace(instructions, kept, label);
+    }
+
+}
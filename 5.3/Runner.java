@@ -0,0 +1,84 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+ * Translates and runs programs inside this JVM, each as a hidden class
+ * of its own, reporting how many programs per second that takes:
+ *
+ *      java -cp bin Runner [-n <rounds>] [-i <input>] <source>...
+ *
+ * Each round translates and runs every source once, with input as the
+ * standard input of each program. Only the first round prints what the
+ * programs write, later ones go to a null stream. A program failing to
+ * translate or throwing goes on to the next one, as a separate process
+ * would.
+ */
+public final class Runner {
+
+    private Runner() {
+    }
+
+    // translates and runs source, returning false if it did not get to the end
+    private static boolean run(byte[] source, byte[] input) {
+        System.setIn(new ByteArrayInputStream(input));
+        try {
+            Translator translator = new Translator(new Lexer(), Source.of(new String(source, StandardCharsets.UTF_8)));
+            translator.prog();
+            translator.run();
+            return true;
+        } catch (SyntaxError | IllegalArgumentException | IllegalStateException e) {
+            System.err.println(e.getMessage());
+        } catch (Throwable e) {
+            System.err.println("Exception in program: " + e);
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = 1;
+        byte[] input = new byte[0];
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-n")) {
+                rounds = Integer.parseInt(args[first + 1]);
+            } else if (args[first].equals("-i")) {
+                input = (args[first + 1] + "\n").getBytes(StandardCharsets.UTF_8);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[first]);
+            }
+            first += 2;
+        }
+        byte[][] sources = new byte[args.length - first][];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = Files.readAllBytes(Paths.get(args[first + i]));
+        }
+
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        int programs = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (byte[] source : sources) {
+                    if (!run(source, input)) {
+                        failed++;
+                    }
+                    programs++;
+                }
+                System.setOut(discard);
+                System.setErr(discard);
+            }
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+            System.setErr(err);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d programs (%d failed) in %.2f s, %.0f programs/s%n", programs, failed, seconds, programs / seconds);
+    }
+
+}
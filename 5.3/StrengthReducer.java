@@ -0,0 +1,174 @@
+/*
+ * Strength reduction over the instructions of a CodeGenerator, run just
+ * before InstructionSelector. A product or quotient by a constant, that
+ * is an ldc right before the imul or idiv or, for a product, an ldc
+ * right before the iload of the other factor, becomes
+ *
+ *      x * 0           pop; ldc 0
+ *      x * 1           x
+ *      x * -1          ineg
+ *      x * 2^k         ldc k; ishl
+ *      x * ±(2^k±1)2^b dup; ldc k; ishl; iadd or isub, then ldc b; ishl
+ *                      and ineg as needed
+ *      x / 1           x
+ *      x / -1          ineg
+ *      x / ±2^k        dup; ldc 31; ishr; ldc 32 - k; iushr; iadd; ldc k;
+ *                      ishr, and ineg for -2^k
+ *
+ * Every instruction costs about the same to the interpreter and the JIT
+ * reduces the rest on its own, so a product by any other constant is
+ * only made of shifts and adds when that takes fewer bytes, counting the
+ * constant pool entry an ldc needs: in practice for constants past the
+ * 16 bits of sipush, such as 65537. A shift rounds a negative dividend
+ * down where idiv rounds it towards 0, so the quotient by 2^k first adds
+ * 2^k - 1 to it, which x >> 31 >>> 32 - k is for a negative x and 0 for
+ * any other, x >>> 31 when k is 1. ConstantPropagator has already made a
+ * plain ishr of the quotients of dividends it knows not to be negative.
+ */
+public final class StrengthReducer {
+
+    private static final OpCode[] OPCODES = OpCode.values();
+
+    // bytes of the constant pool entry of an ldc
+    private static final int POOL_ENTRY = 5;
+
+    private StrengthReducer() {
+    }
+
+    public static void reduce(CodeGenerator code) {
+        int[] instructions = new int[2 * (5 * code.size() + 1)]; // a quotient by ldc takes 10 instructions at most
+        int size = 0;
+        for (int i = 0; i < code.size(); i++) {
+            OpCode opCode = code.opCode(i);
+            int operand = code.operand(i);
+            if (opCode == OpCode.IMUL && size >= 2
+                    && op(instructions, size - 2) == OpCode.LDC && op(instructions, size - 1) == OpCode.ILOAD) {
+                // c * x as x * c, put back if it is not reduced
+                swap(instructions, size - 2);
+                int reduced = multiply(instructions, size - 1, instructions[2 * (size - 1) + 1]);
+                if (reduced >= 0) {
+                    size = reduced;
+                    continue;
+                }
+                swap(instructions, size - 2);
+            } else if ((opCode == OpCode.IMUL || opCode == OpCode.IDIV) && size >= 1 && op(instructions, size - 1) == OpCode.LDC) {
+                int constant = instructions[2 * (size - 1) + 1];
+                int reduced = (opCode == OpCode.IMUL)
+                        ? multiply(instructions, size - 1, constant)
+                        : divide(instructions, size - 1, constant);
+                if (reduced >= 0) {
+                    size = reduced;
+                    continue;
+                }
+            }
+            instructions[2 * size] = opCode.ordinal();
+            instructions[2 * size + 1] = operand;
+            size++;
+        }
+        code.replace(instructions, size, code.labels());
+    }
+
+    private static OpCode op(int[] instructions, int index) {
+        return OPCODES[instructions[2 * index]];
+    }
+
+    // swaps the instruction at index with the one after it
+    private static void swap(int[] instructions, int index) {
+        for (int k = 0; k < 2; k++) {
+            int first = instructions[2 * index + k];
+            instructions[2 * index + k] = instructions[2 * index + 2 + k];
+            instructions[2 * index + 2 + k] = first;
+        }
+    }
+
+    // writes x * constant from at, where the ldc of constant was, returning the new size, -1 if it is not reduced
+    private static int multiply(int[] instructions, int at, int constant) {
+        if (constant == 0) {
+            if (at >= 1 && (op(instructions, at - 1) == OpCode.ILOAD || op(instructions, at - 1) == OpCode.LDC)) {
+                return put(instructions, at - 1, OpCode.LDC, 0); // x need not be loaded at all
+            }
+            return put(instructions, put(instructions, at, OpCode.POP, -1), OpCode.LDC, 0);
+        } else if (constant == 1) {
+            return at;
+        } else if (constant == -1) {
+            return put(instructions, at, OpCode.INEG, -1);
+        } else if (Integer.bitCount(constant) == 1) {
+            return put(instructions, put(instructions, at, OpCode.LDC, Integer.numberOfTrailingZeros(constant)), OpCode.ISHL, -1);
+        }
+
+        // constant is ±n * 2^b with n odd, which must be 2^k + 1 or 2^k - 1
+        int magnitude = Math.abs(constant);
+        int b = Integer.numberOfTrailingZeros(magnitude);
+        int n = magnitude >>> b;
+        boolean negative = constant < 0;
+        int plus = (Integer.bitCount(n - 1) == 1) ? Integer.numberOfTrailingZeros(n - 1) : -1;
+        int minus = (Integer.bitCount(n + 1) == 1) ? Integer.numberOfTrailingZeros(n + 1) : -1;
+        int tail = ((b > 0) ? bytes(b) + 1 : 0);
+        // x + (x << k) is x * n, while x - (x << k) is -x * n and spares the ineg of a negative constant
+        int plusBytes = (plus < 0) ? Integer.MAX_VALUE : 3 + bytes(plus) + tail + (negative ? 1 : 0);
+        int minusBytes = (minus < 0) ? Integer.MAX_VALUE : 3 + bytes(minus) + tail + (negative ? 0 : 1);
+        if (Math.min(plusBytes, minusBytes) >= bytes(constant) + 1) {
+            return -1;
+        }
+
+        boolean subtract = (minusBytes < plusBytes);
+        int size = put(instructions, at, OpCode.DUP, -1);
+        size = put(instructions, size, OpCode.LDC, subtract ? minus : plus);
+        size = put(instructions, size, OpCode.ISHL, -1);
+        size = put(instructions, size, subtract ? OpCode.ISUB : OpCode.IADD, -1);
+        if (b > 0) {
+            size = put(instructions, size, OpCode.LDC, b);
+            size = put(instructions, size, OpCode.ISHL, -1);
+        }
+        if (negative != subtract) {
+            size = put(instructions, size, OpCode.INEG, -1);
+        }
+        return size;
+    }
+
+    // writes x / constant from at, where the ldc of constant was, returning the new size, -1 if it is not reduced
+    private static int divide(int[] instructions, int at, int constant) {
+        if (constant == 1) {
+            return at;
+        } else if (constant == -1) {
+            return put(instructions, at, OpCode.INEG, -1);
+        }
+        int magnitude = Math.abs(constant);
+        if (magnitude < 2 || Integer.bitCount(magnitude) != 1) {
+            return -1; // Integer.MIN_VALUE among them, whose magnitude is itself
+        }
+        int k = Integer.numberOfTrailingZeros(magnitude);
+        int size = put(instructions, at, OpCode.DUP, -1);
+        size = put(instructions, size, OpCode.LDC, 31);
+        if (k > 1) {
+            size = put(instructions, size, OpCode.ISHR, -1);
+            size = put(instructions, size, OpCode.LDC, 32 - k);
+        }
+        size = put(instructions, size, OpCode.IUSHR, -1);
+        size = put(instructions, size, OpCode.IADD, -1);
+        size = put(instructions, size, OpCode.LDC, k);
+        size = put(instructions, size, OpCode.ISHR, -1);
+        if (constant < 0) {
+            size = put(instructions, size, OpCode.INEG, -1);
+        }
+        return size;
+    }
+
+    // bytes of the instruction InstructionSelector pushes value with, and of its constant pool entry if any
+    private static int bytes(int value) {
+        switch (InstructionSelector.constant(value)) {
+            case ICONST: return 1;
+            case BIPUSH: return 2;
+            case SIPUSH: return 3;
+            default:     return 2 + POOL_ENTRY;
+        }
+    }
+
+    // writes the instruction at index at, returning the index after it
+    private static int put(int[] instructions, int at, OpCode opCode, int operand) {
+        instructions[2 * at] = opCode.ordinal();
+        instructions[2 * at + 1] = operand;
+        return at + 1;
+    }
+
+}
@@ -0,0 +1,171 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+ * Stress benchmark of the Translator on lists, runs of comments and
+ * nested expressions 10^6 elements long by default, on the default thread
+ * stack so that any recursion over them overflows, of the Lexer against
+ * TableLexer, which must agree on every token, and of the Lexer on a file
+ * of 10 MB by default mapped by Source.
+ *
+ *      java -cp bin Stress [elements [megabytes]]
+ */
+public final class Stress {
+
+    private Stress() {
+    }
+
+    private static String statements(int count) {
+        StringBuilder sb = new StringBuilder("assign [0 to x]");
+        for (int i = 0; i < count; i++) {
+            sb.append(";\nprint(x)");
+        }
+        return sb.toString();
+    }
+
+    private static String list(String before, String element, String separator, String after, int count) {
+        StringBuilder sb = new StringBuilder(before);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "" : separator).append(element);
+        }
+        return sb.append(after).toString();
+    }
+
+    private static String repeat(String before, String middle, String after, int count) {
+        StringBuilder sb = new StringBuilder(before);
+        for (int i = 0; i < count; i++) {
+            sb.append(middle);
+        }
+        return sb.append(after).toString();
+    }
+
+    private static String nested(String open, String operand, String close, int count) {
+        StringBuilder sb = new StringBuilder("assign [0 to x]; print(");
+        for (int i = 0; i < count; i++) {
+            sb.append(open);
+        }
+        sb.append(operand);
+        for (int i = 0; i < count; i++) {
+            sb.append(close);
+        }
+        return sb.append(")").toString();
+    }
+
+    private static String assignments(int count) {
+        StringBuilder sb = new StringBuilder("assign");
+        for (int i = 1; i <= count; i++) {
+            sb.append(" [").append(i).append(" to x]");
+        }
+        return sb.toString();
+    }
+
+    private static void run(String name, String program) {
+        long start = System.nanoTime();
+        Translator translator = new Translator(new Lexer(), Source.of(program));
+        translator.prog();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-12s %10d bytes %8.1f ms%n", name, program.length(), elapsed / 1e6);
+    }
+
+    private static String commented(int count) {
+        StringBuilder sb = new StringBuilder("assign [0 to x]");
+        for (int i = 0; i < count; i++) {
+            sb.append(";\n/* step ").append(i).append("\n */ assign [+(x, ").append(i).append(") to x] // x_").append(i);
+        }
+        return sb.append(";\nprint(x)").toString();
+    }
+
+    // tokens of program as scanned by Lexer and TableLexer, which must agree
+    private static void lex(String name, String program) {
+        Lexer lexer = new Lexer();
+        TableLexer table = new TableLexer();
+        Source src = Source.of(program);
+        Source tableSrc = Source.of(program);
+        int tokens = 0;
+        while (true) {
+            Token token = lexer.scan(src);
+            Token tableToken = table.scan(tableSrc);
+            if (!token.toString().equals(tableToken.toString()) || lexer.getLine() != table.getLine()) {
+                throw new IllegalStateException("Lexer read " + token + " on line " + lexer.getLine()
+                        + ", TableLexer " + tableToken + " on line " + table.getLine());
+            }
+            tokens++;
+            if (token.tag == Tag.EOF) {
+                break;
+            }
+        }
+
+        long start = System.nanoTime();
+        lexer = new Lexer();
+        src = Source.of(program);
+        while (lexer.scan(src).tag != Tag.EOF) {
+            // keeps scanning
+        }
+        long hand = System.nanoTime() - start;
+        start = System.nanoTime();
+        table = new TableLexer();
+        src = Source.of(program);
+        while (table.scan(src).tag != Tag.EOF) {
+            // keeps scanning
+        }
+        long generated = System.nanoTime() - start;
+        System.out.printf("%-12s %10d bytes %8.1f ms Lexer, %8.1f ms TableLexer (%d tokens)%n",
+                name, program.length(), hand / 1e6, generated / 1e6, tokens);
+    }
+
+    // tokens per second of the Lexer on a file of megabytes MB mapped by Source, and the time BufferedReader takes to read it
+    private static void source(String name, int megabytes) throws IOException {
+        Path file = Files.createTempFile("stress", ".txt");
+        try {
+            byte[] block = (commented(10_000) + ";\n").getBytes(StandardCharsets.UTF_8);
+            long size = 0;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                for (; size < ((long) megabytes << 20); size += block.length) {
+                    out.write(block);
+                }
+            }
+
+            long start = System.nanoTime();
+            Lexer lexer = new Lexer();
+            long tokens = 0;
+            try (Source src = Source.open(file.toString())) {
+                while (lexer.scan(src).tag != Tag.EOF) {
+                    tokens++;
+                }
+            }
+            long mapped = System.nanoTime() - start;
+            start = System.nanoTime();
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                while (br.read() >= 0) {
+                    // keeps reading
+                }
+            }
+            long read = System.nanoTime() - start;
+            System.out.printf("%-12s %10d bytes %8.1f ms Lexer (%.1f Mtok/s), %8.1f ms BufferedReader.read() (%d tokens)%n",
+                    name, size, mapped / 1e6, tokens * 1e3 / mapped, read / 1e6, tokens);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int megabytes = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        run("statements", statements(count));
+        run("print", list("assign [0 to x]; print(", "x", ", ", ")", count));
+        run("sum", list("assign [0 to x]; print(+(", "x", ", ", "))", count));
+        run("read", list("read(", "x", ", ", ")", count));
+        run("assignlist", assignments(count));
+        run("/* comments", repeat("assign [0 to x]", " /* c */", "; print(x)", count));
+        run("// comments", repeat("assign [0 to x]", " // c\n", "; print(x)", count));
+        run("nested +", nested("+(", "x", ")", count));
+        run("nested *", nested("*(", "x", ")", count));
+        run("nested -", nested("- ", "x", " x", count));
+        run("nested /", nested("/ ", "x", " x", count));
+        run("chained -", repeat("assign [0 to x]; print(", "- x ", "x)", count));
+        lex("lexers", commented(count));
+        source("source", megabytes);
+    }
+
+}
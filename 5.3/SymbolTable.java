@@ -4,11 +4,29 @@ public final class SymbolTable {
 
     private final Map<String, Integer> offsetMap = new HashMap<>();
 
+    // addresses by symbol id of Words interned by the Lexer, shifted by one so that 0 means absent
+    private int[] idMap = new int[64];
+
     private int address = 0;
 
+    // symbols by address, and the addresses a lenient lookup inserted
+    private final List<String> symbols = new ArrayList<>();
+    private final BitSet lookedUp = new BitSet();
+    private final boolean lenient;
+
+    public SymbolTable() {
+        this(false);
+    }
+
+    // a lenient table inserts the symbols lookup does not find instead of failing
+    public SymbolTable(boolean lenient) {
+        this.lenient = lenient;
+    }
+
     public int lookupOrInsert(String symbol) {
         if (!offsetMap.containsKey(symbol)) {
             offsetMap.put(symbol, address);
+            symbols.add(symbol);
             address++;
         }
         return offsetMap.get(symbol);
@@ -16,9 +34,47 @@ public final class SymbolTable {
 
     public int lookup(String symbol) {
         if (!offsetMap.containsKey(symbol)) {
+            if (lenient) {
+                lookedUp.set(address);
+                return lookupOrInsert(symbol);
+            }
             throw new IllegalArgumentException("Could not find address for symbol: " + symbol);
         }
         return offsetMap.get(symbol);
     }
 
+    public int lookupOrInsert(Word word) {
+        int id = word.getId();
+        if (id < 0) {
+            return lookupOrInsert(word.getLexeme());
+        }
+        if (id >= idMap.length) {
+            idMap = Arrays.copyOf(idMap, Math.max(id + 1, idMap.length * 2));
+        }
+        if (idMap[id] == 0) {
+            idMap[id] = lookupOrInsert(word.getLexeme()) + 1;
+        }
+        return idMap[id] - 1;
+    }
+
+    public int lookup(Word word) {
+        int id = word.getId();
+        if (id >= 0 && id < idMap.length && idMap[id] != 0) {
+            return idMap[id] - 1;
+        }
+        return lookup(word.getLexeme());
+    }
+
+    public int size() {
+        return address;
+    }
+
+    public String getSymbol(int address) {
+        return symbols.get(address);
+    }
+
+    public boolean isLookedUp(int address) {
+        return lookedUp.get(address);
+    }
+
 }
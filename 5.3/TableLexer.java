@@ -0,0 +1,302 @@
+// Generated by LexerGenerator from lexer.spec, do not edit.
+
+import java.io.*;
+import java.util.Arrays;
+
+public final class TableLexer {
+
+    private static final char EOF = Source.EOF;
+
+    private static final int CLASSES = 27;
+    private static final int NON_ASCII = 0;
+    private static final int END_OF_FILE = 26;
+
+    // equivalence class of each ASCII character
+    private static final byte[] CLASS = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 0, 0, 2, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 3, 0, 0, 0, 0, 4, 0, 5, 6, 7, 8, 9, 10, 0, 11,
+            12, 13, 13, 13, 13, 13, 13, 13, 13, 13, 14, 15, 16, 17, 18, 0,
+            0, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19,
+            19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 20, 0, 21, 0, 22,
+            0, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19,
+            19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 19, 23, 24, 25, 0, 0
+    };
+
+    // NEXT[state * CLASSES + class] is the next state, -1 if there is none
+    private static final short[] NEXT = {
+            -1, 1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, -1,
+            -1, 1, 1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, 25, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, 26, -1, -1, -1, 27, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 28, 28, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 12, 12, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 29, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 30, 31, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 32, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 33, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 18, 18, -1, -1, -1, -1, -1, 18, -1, -1, 18, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 18, 18, -1, -1, -1, -1, -1, 18, -1, -1, 21, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 34, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            26, 26, 26, 26, 26, 26, 26, 35, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, -1,
+            27, 27, -1, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, 27, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 28, 28, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+            26, 26, 26, 26, 26, 26, 26, 35, 26, 26, 26, 36, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, 26, -1,
+            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1
+    };
+
+    // rule accepted in each state, -1 if the state is not accepting
+    private static final byte[] ACCEPT = {
+            -1, 0, 17, -1, 4, 5, 15, 13, 10, 14, 16, 28, 28, -1, 11, 24,
+            -1, 25, 26, 6, 7, 27, 8, -1, 9, 18, 3, 1, 29, 12, 22, 21,
+            20, 23, 19, 3, 2
+    };
+
+    // chars[start, avail) is input read but not consumed yet, pos the next character to match
+    private char[] chars = new char[4096];
+    private int start = 0;
+    private int pos = 0;
+    private int avail = 0;
+    private int line = 1;
+
+    private static int classOf(char c) {
+        if (c < CLASS.length) {
+            return CLASS[c];
+        }
+        return (c == EOF) ? END_OF_FILE : NON_ASCII;
+    }
+
+    // characters read past the last match are kept in chars and read again first
+    private char read(Source src) {
+        if (pos < avail) {
+            return chars[pos++];
+        }
+        if (avail == chars.length) {
+            if (start > 0) {
+                System.arraycopy(chars, start, chars, 0, avail - start);
+                avail -= start;
+                pos -= start;
+                start = 0;
+            } else {
+                chars = Arrays.copyOf(chars, avail * 2);
+            }
+        }
+        chars[avail++] = src.next();
+        return chars[pos++];
+    }
+
+    private void consume(int length) {
+        for (int i = start; i < start + length; i++) {
+            if (chars[i] == '\n') {
+                line++;
+            }
+        }
+        start += length;
+    }
+
+    public Token scan(Source src) {
+        while (true) {
+            pos = start;
+            char c = read(src);
+            if (c == EOF) {
+                pos = start;
+                return new Token(Tag.EOF);
+            }
+
+            int state = 0;
+            int rule = -1;
+            int length = 0;
+            while (true) {
+                state = NEXT[state * CLASSES + classOf(c)];
+                if (state < 0) {
+                    break;
+                }
+                if (ACCEPT[state] >= 0) {
+                    rule = ACCEPT[state];
+                    length = pos - start;
+                }
+                c = read(src);
+            }
+
+            if (rule < 0) {
+                throw new SyntaxError("erroneous character '" + chars[start] + "'");
+            }
+            switch (rule) {
+                case 0: { // blank
+                    consume(length);
+                    continue;
+                }
+                case 1: { // line
+                    consume(length);
+                    continue;
+                }
+                case 2: { // block
+                    start += length;
+                    continue;
+                }
+                case 3: { // unclosed
+                    throw new SyntaxError("unclosed multi-line comment before end of file");
+                }
+                case 4: { // LPT
+                    consume(length);
+                    return Token.LPT;
+                }
+                case 5: { // RPT
+                    consume(length);
+                    return Token.RPT;
+                }
+                case 6: { // LPQ
+                    consume(length);
+                    return Token.LPQ;
+                }
+                case 7: { // RPQ
+                    consume(length);
+                    return Token.RPQ;
+                }
+                case 8: { // LPG
+                    consume(length);
+                    return Token.LPG;
+                }
+                case 9: { // RPG
+                    consume(length);
+                    return Token.RPG;
+                }
+                case 10: { // COMMA
+                    consume(length);
+                    return Token.COMMA;
+                }
+                case 11: { // SEMICOLON
+                    consume(length);
+                    return Token.SEMICOLON;
+                }
+                case 12: { // INIT
+                    consume(length);
+                    return Word.INIT;
+                }
+                case 13: { // PLUS
+                    consume(length);
+                    return Token.PLUS;
+                }
+                case 14: { // MINUS
+                    consume(length);
+                    return Token.MINUS;
+                }
+                case 15: { // MULT
+                    consume(length);
+                    return Token.MULT;
+                }
+                case 16: { // DIV
+                    consume(length);
+                    return Token.DIV;
+                }
+                case 17: { // NOT
+                    consume(length);
+                    return Token.NOT;
+                }
+                case 18: { // AND
+                    consume(length);
+                    return Word.AND;
+                }
+                case 19: { // OR
+                    consume(length);
+                    return Word.OR;
+                }
+                case 20: { // EQ
+                    consume(length);
+                    return Word.EQ;
+                }
+                case 21: { // NE
+                    consume(length);
+                    return Word.NE;
+                }
+                case 22: { // LE
+                    consume(length);
+                    return Word.LE;
+                }
+                case 23: { // GE
+                    consume(length);
+                    return Word.GE;
+                }
+                case 24: { // LT
+                    consume(length);
+                    return Word.LT;
+                }
+                case 25: { // GT
+                    consume(length);
+                    return Word.GT;
+                }
+                case 26: { // ID
+                    String text = new String(chars, start, length);
+                    consume(length);
+                    switch (text) {
+                        case "assign": return Word.ASSIGN;
+                        case "begin": return Word.BEGIN;
+                        case "print": return Word.PRINT;
+                        case "else": return Word.ELSETOK;
+                        case "read": return Word.READ;
+                        case "for": return Word.FORTOK;
+                        case "end": return Word.END;
+                        case "to": return Word.TO;
+                        case "if": return Word.IFTOK;
+                        case "do": return Word.DOTOK;
+                    }
+                    return new Word(Tag.ID, text);
+                }
+                case 27: { // underscores
+                    throw new SyntaxError("erroneous char sequence of underscores");
+                }
+                case 28: { // NUM
+                    String text = new String(chars, start, length);
+                    consume(length);
+                    return new NumberTok(text);
+                }
+                case 29: { // zero
+                    throw new SyntaxError("erroneous number with leading zero");
+                }
+                default:
+                    throw new IllegalStateException("unknown rule " + rule);
+            }
+        }
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public static void main(String[] args) {
+        TableLexer lex = new TableLexer();
+        try {
+            Source src = Source.open(args[0]);
+            Token tok;
+            do {
+                tok = lex.scan(src);
+                System.out.println("Scan: " + tok);
+            } while (tok.tag != Tag.EOF);
+            src.close();
+        } catch (SyntaxError e) {
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+# Token specification of the 5.3 language, compiled by LexerGenerator into TableLexer.
+# <kind> <name> <regex> <action>, see LexerGenerator for the syntax.
+
+skip    blank       [ \t\r\n]+
+skip    line        //[^\r\n]*
+skip    block       /\*([^*]|\*+[^*/])*\*+/          nolines
+error   unclosed    /\*([^*]|\*+[^*/])*\**          unclosed multi-line comment before end of file
+
+# parenthesis
+token   LPT         \(      Token.LPT
+token   RPT         \)      Token.RPT
+token   LPQ         \[      Token.LPQ
+token   RPQ         \]      Token.RPQ
+token   LPG         {       Token.LPG
+token   RPG         }       Token.RPG
+
+# separators
+token   COMMA       ,       Token.COMMA
+token   SEMICOLON   ;       Token.SEMICOLON
+
+# init
+token   INIT        :=      Word.INIT
+
+# math operators
+token   PLUS        \+      Token.PLUS
+token   MINUS       -       Token.MINUS
+token   MULT        \*      Token.MULT
+token   DIV         /       Token.DIV
+
+# boolean operators
+token   NOT         !       Token.NOT
+token   AND         &&      Word.AND
+token   OR          \|\|    Word.OR
+
+# relational operators
+token   EQ          ==      Word.EQ
+token   NE          <>      Word.NE
+token   LE          <=      Word.LE
+token   GE          >=      Word.GE
+token   LT          <       Word.LT
+token   GT          >       Word.GT
+
+# identifiers need at least one character other than '_', numbers have no leading zeros
+token   ID          [a-zA-Z][a-zA-Z0-9_]*|_+[a-zA-Z0-9][a-zA-Z0-9_]*    new Word(Tag.ID, text)
+error   underscores _+                                                 erroneous char sequence of underscores
+token   NUM         0|[1-9][0-9]*                                      new NumberTok(text)
+error   zero        0[0-9]+                                            erroneous number with leading zero
+
+keyword assign      Word.ASSIGN
+keyword begin       Word.BEGIN
+keyword print       Word.PRINT
+keyword else        Word.ELSETOK
+keyword read        Word.READ
+keyword for         Word.FORTOK
+keyword end         Word.END
+keyword to          Word.TO
+keyword if          Word.IFTOK
+keyword do          Word.DOTOK